@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.agent;
+
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+
+import org.wildfly.transformer.TransformerBuilder;
+import org.wildfly.transformer.TransformerFactory;
+
+/**
+ * Java agent transforming classes while they are being loaded. Usage:
+ * <pre>
+ * java -javaagent:transformer-agent.jar[=packages mapping file] ...
+ * </pre>
+ * If packages mapping file is not specified default packages mapping is used.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class Agent {
+
+    private Agent() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Agent entry point invoked before application main method.
+     *
+     * @param args packages mapping file or <code>null</code> for default packages mapping
+     * @param instrumentation instrumentation
+     * @throws IOException if packages mapping file cannot be read
+     */
+    public static void premain(final String args, final Instrumentation instrumentation) throws IOException {
+        install(args, instrumentation);
+    }
+
+    /**
+     * Agent entry point invoked when agent is attached to running JVM.
+     * Only classes loaded after the agent was attached are transformed.
+     *
+     * @param args packages mapping file or <code>null</code> for default packages mapping
+     * @param instrumentation instrumentation
+     * @throws IOException if packages mapping file cannot be read
+     */
+    public static void agentmain(final String args, final Instrumentation instrumentation) throws IOException {
+        install(args, instrumentation);
+    }
+
+    private static void install(final String args, final Instrumentation instrumentation) throws IOException {
+        final TransformerBuilder builder = TransformerFactory.getInstance().newTransformer();
+        if (args != null && !args.trim().isEmpty()) {
+            builder.setPackagesMapping(args.trim());
+        }
+        instrumentation.addTransformer(new AgentTransformer(builder.build()), false);
+    }
+
+}
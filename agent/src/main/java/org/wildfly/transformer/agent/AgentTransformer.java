@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.agent;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+
+import org.wildfly.transformer.Transformer;
+
+/**
+ * Class file transformer registered by the agent. Classes which cannot reference mapped packages
+ * are rejected by their name, class loader and code source before their bytes are inspected.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class AgentTransformer implements ClassFileTransformer {
+
+    /**
+     * Packages of JDK, already transformed and transformer classes.
+     * Classes in mapped <code>javax</code> packages cannot be renamed while they are being defined.
+     */
+    private static final String[] EXCLUDED_PACKAGES = {
+        "java/", "javax/", "jdk/", "sun/", "com/sun/", "jakarta/", "org/wildfly/transformer/",
+    };
+    private static final String JRT_PROTOCOL = "jrt";
+    private static final String FILE_PROTOCOL = "file";
+
+    private final Transformer t;
+    private final ClassLoader platformClassLoader;
+    private final String javaHomePath;
+
+    AgentTransformer(final Transformer t) {
+        this.t = t;
+        platformClassLoader = ClassLoader.getSystemClassLoader().getParent();
+        javaHomePath = new File(System.getProperty("java.home")).getAbsoluteFile().toURI().getPath();
+    }
+
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+                            final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+        if (className == null || classBeingRedefined != null) return null;
+        if (loader == null || loader == platformClassLoader) return null; // JDK classes
+        for (String excludedPackage : EXCLUDED_PACKAGES) {
+            if (className.startsWith(excludedPackage)) return null;
+        }
+        if (isJdkCodeSource(protectionDomain)) return null;
+        try {
+            return t.transform(loader, className, null, protectionDomain, classfileBuffer);
+        } catch (final RuntimeException e) {
+            // exceptions thrown by class file transformers are silently ignored by JVM
+            System.err.println("Couldn't transform class " + className + ": " + e);
+            return null;
+        }
+    }
+
+    private boolean isJdkCodeSource(final ProtectionDomain protectionDomain) {
+        final CodeSource codeSource = protectionDomain != null ? protectionDomain.getCodeSource() : null;
+        final URL location = codeSource != null ? codeSource.getLocation() : null;
+        if (location == null) return false;
+        if (JRT_PROTOCOL.equals(location.getProtocol())) return true;
+        return FILE_PROTOCOL.equals(location.getProtocol()) && location.getPath().startsWith(javaHomePath);
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.wildfly.transformer.Transformer;
+
+/**
+ * Tests of {@link AgentTransformer} rejection logic.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AgentTransformerTest extends TestCase {
+
+    private static final byte[] CLASS_BYTES = {1, 2, 3};
+    private static final byte[] TRANSFORMED_BYTES = {4, 5, 6};
+
+    private RecordingTransformer t;
+    private AgentTransformer agentTransformer;
+    private ClassLoader loader;
+    private ProtectionDomain applicationDomain;
+
+    @Override
+    protected void setUp() throws IOException {
+        t = new RecordingTransformer();
+        agentTransformer = new AgentTransformer(t);
+        loader = getClass().getClassLoader();
+        applicationDomain = domain(new File("target/app.jar").getAbsoluteFile().toURI().toURL());
+    }
+
+    public void testApplicationClassIsTransformed() {
+        assertSame(TRANSFORMED_BYTES, transform(loader, "org/example/Foo", applicationDomain));
+        assertSame(TRANSFORMED_BYTES, transform(loader, "org/example/Bar", null));
+        assertEquals(2, t.classNames.size());
+        assertEquals("org/example/Foo", t.classNames.get(0));
+    }
+
+    public void testClassesAreRejectedByName() {
+        assertNull(transform(loader, null, applicationDomain));
+        for (String className : new String[] {"java/lang/Foo", "javax/servlet/Foo", "jdk/internal/Foo", "sun/misc/Foo",
+                "com/sun/Foo", "jakarta/servlet/Foo", "org/wildfly/transformer/Foo"}) {
+            assertNull(className, transform(loader, className, applicationDomain));
+        }
+        assertTrue(t.classNames.isEmpty());
+    }
+
+    public void testClassesAreRejectedByLoader() {
+        assertNull(transform(null, "org/example/Foo", applicationDomain));
+        assertNull(transform(ClassLoader.getSystemClassLoader().getParent(), "org/example/Foo", applicationDomain));
+        assertNull(agentTransformer.transform(loader, "org/example/Foo", Object.class, applicationDomain, CLASS_BYTES));
+        assertTrue(t.classNames.isEmpty());
+    }
+
+    public void testClassesAreRejectedByCodeSource() throws IOException {
+        final URL jrtLocation = new URL("jrt", "", -1, "/java.base", new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(final URL u) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        assertNull(transform(loader, "org/example/Foo", domain(jrtLocation)));
+        final File javaHomeJar = new File(System.getProperty("java.home"), "lib/rt.jar").getAbsoluteFile();
+        assertNull(transform(loader, "org/example/Foo", domain(javaHomeJar.toURI().toURL())));
+        assertTrue(t.classNames.isEmpty());
+    }
+
+    public void testTransformationFailureIsIgnored() {
+        t.failure = new IllegalStateException("expected");
+        assertNull(transform(loader, "org/example/Foo", applicationDomain));
+        assertEquals(1, t.classNames.size());
+    }
+
+    private byte[] transform(final ClassLoader loader, final String className, final ProtectionDomain protectionDomain) {
+        return agentTransformer.transform(loader, className, null, protectionDomain, CLASS_BYTES);
+    }
+
+    private static ProtectionDomain domain(final URL location) {
+        return new ProtectionDomain(new CodeSource(location, (Certificate[]) null), null);
+    }
+
+    /**
+     * Records names of classes passed to the transformer.
+     */
+    private static final class RecordingTransformer implements Transformer {
+
+        private final List<String> classNames = new ArrayList<>();
+        private RuntimeException failure;
+
+        @Override
+        public Resource transform(final Resource r) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+                                final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+            classNames.add(className);
+            if (failure != null) throw failure;
+            return TRANSFORMED_BYTES;
+        }
+
+    }
+
+}
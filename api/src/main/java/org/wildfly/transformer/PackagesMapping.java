@@ -0,0 +1,419 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Compiled, validated and immutable packages mapping.
+ * Recently used packages mappings are cached by their content checksum so configurations are not parsed and validated again
+ * while they are cached. Transformers created from the same packages mapping by the same {@link TransformerBuilder}
+ * implementation are shared while they are in use. Neither packages mappings nor transformers are kept reachable
+ * by this class once they are evicted from the cache and no longer used.
+ * Packages mapping can be stored in compact binary form (see {@link #writeTo(OutputStream)}) that is loaded without
+ * parsing and validation. Both properties and binary forms are accepted by {@link #load(String)} method.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class PackagesMapping {
+
+    private static final String DEFAULT_CONFIG = "default.mapping";
+    private static final int MAX_MAPPINGS = 0xFFFF;
+    private static final char DOT = '.';
+    private static final char SEP = '/';
+    private static final byte[] MAGIC = {'B', 'T', 'V', 'M'};
+    private static final int FORMAT_VERSION = 1;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int MAX_CACHED_MAPPINGS = 16;
+    /**
+     * Recently used packages mappings by their content checksum or fingerprint.
+     */
+    private static final Map<String, PackagesMapping> CACHE = Collections.synchronizedMap(new LinkedHashMap<String, PackagesMapping>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, PackagesMapping> eldest) {
+            return size() > MAX_CACHED_MAPPINGS;
+        }
+    });
+    /**
+     * Packages mappings of built transformers. Transformers are referenced weakly and transformers of packages mapping
+     * are referenced weakly too, so packages mapping is released together with its last transformer.
+     */
+    private static final Map<Transformer, PackagesMapping> TRANSFORMERS = Collections.synchronizedMap(new WeakHashMap<Transformer, PackagesMapping>());
+
+    private final Map<String, String> mappingWithSeps;
+    private final Map<String, String> mappingWithDots;
+    private final String fingerprint;
+    private final Map<List<Object>, WeakReference<Transformer>> transformers = new HashMap<>();
+
+    private PackagesMapping(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots, final String fingerprint) {
+        this.mappingWithSeps = Collections.unmodifiableMap(mappingWithSeps);
+        this.mappingWithDots = Collections.unmodifiableMap(mappingWithDots);
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Gets default packages mapping.
+     *
+     * @return default packages mapping
+     * @throws IOException if default configuration reading process failed with unexpected I/O error
+     */
+    public static PackagesMapping getDefault() throws IOException {
+        return load(PackagesMapping.class.getResourceAsStream(SEP + DEFAULT_CONFIG));
+    }
+
+    /**
+     * Loads packages mapping from configuration file.
+     * First this method tries to read the specified file from the file system.
+     * If file doesn't exist on the file system then class loader resources are inspected.
+     *
+     * @param config packages mapping configuration file either in properties or binary form
+     * @return packages mapping
+     * @throws IllegalArgumentException if method parameter is <code>null</code>
+     * or if method parameter equals to <code>empty string</code>
+     * or if file doesn't exist neither on the file system nor in class loader resources
+     * or if configuration file has invalid format or it contains identical package mapping
+     * or if some package defined in one package mapping is a substring of package in another package mapping
+     * @throws IllegalStateException if there was no packages mapping defined in configuration file or
+     * if packages mapping count in configuration file surpasses value <code>65535</code>
+     * @throws IOException if configuration reading process failed with unexpected I/O error
+     */
+    public static PackagesMapping load(final String config) throws IOException {
+        if (config == null || "".equals(config)) throw new IllegalArgumentException("Parameter cannot be neither null nor empty string");
+        return load(open(config));
+    }
+
+    /**
+     * Loads packages mapping from stream. The stream is closed by this method.
+     *
+     * @param mappingFile packages mapping configuration either in properties or binary form
+     * @return packages mapping
+     * @throws IllegalArgumentException if configuration has invalid format or it contains identical package mapping
+     * or if some package defined in one package mapping is a substring of package in another package mapping
+     * @throws IllegalStateException if there was no packages mapping defined in configuration or
+     * if packages mapping count in configuration surpasses value <code>65535</code>
+     * @throws IOException if configuration reading process failed with unexpected I/O error
+     */
+    public static PackagesMapping load(final InputStream mappingFile) throws IOException {
+        if (mappingFile == null) throw new IllegalArgumentException("Couldn't find specified config file neither on file system nor on class path");
+        final byte[] content;
+        try {
+            content = readAll(mappingFile);
+        } finally {
+            safeClose(mappingFile);
+        }
+        final String checksum = toHex(hash(content));
+        PackagesMapping retVal = CACHE.get(checksum);
+        if (retVal == null) {
+            retVal = isBinary(content) ? readBinary(content) : readProperties(content);
+            final PackagesMapping existing = CACHE.putIfAbsent(checksum, retVal);
+            if (existing != null) retVal = existing;
+        }
+        return retVal;
+    }
+
+    /**
+     * Creates packages mapping from mappings defined programmatically.
+     * Packages mapping is not validated again while it is cached, packages mappings defining the same mappings are shared.
+     *
+     * @param mapping packages mapping in path separator form
+     * @return packages mapping
+     * @throws IllegalArgumentException if method parameter is <code>null</code>
+     * or if some package is <code>null</code>, <code>empty string</code> or contains '.' char
+     * or if it contains identical package mapping
+     * or if some package defined in one package mapping is a substring of package in another package mapping
+     * @throws IllegalStateException if there was no packages mapping defined or
+     * if packages mapping count surpasses value <code>65535</code>
+     */
+    public static PackagesMapping create(final Map<String, String> mapping) {
+        if (mapping == null) throw new IllegalArgumentException("Parameter cannot be null");
+        final Map<String, String> mappingWithSeps = new HashMap<>(mapping.size() * 2);
+        final Map<String, String> mappingWithDots = new HashMap<>(mapping.size() * 2);
+        for (Map.Entry<String, String> mappingEntry : mapping.entrySet()) {
+            addMapping(mappingWithSeps, mappingWithDots, mappingEntry.getKey(), mappingEntry.getValue());
+        }
+        final String fingerprint = fingerprint(mappingWithSeps);
+        PackagesMapping retVal = CACHE.get(fingerprint);
+        if (retVal == null) {
+            validate(mappingWithSeps);
+            retVal = new PackagesMapping(mappingWithSeps, mappingWithDots, fingerprint);
+            final PackagesMapping existing = CACHE.putIfAbsent(fingerprint, retVal);
+            if (existing != null) retVal = existing;
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets packages mapping given transformer was built from.
+     *
+     * @param t transformer
+     * @return packages mapping or <code>null</code> if transformer was not built by {@link TransformerBuilder}
+     */
+    public static PackagesMapping of(final Transformer t) {
+        return TRANSFORMERS.get(t);
+    }
+
+    static InputStream open(final String config) throws IOException {
+        final File userConfig = new File(config);
+        if (userConfig.exists() && userConfig.isFile()) {
+            return new FileInputStream(userConfig);
+        }
+        return PackagesMapping.class.getResourceAsStream(config);
+    }
+
+    /**
+     * Gets packages mapping in path separator form.
+     *
+     * @return unmodifiable packages mapping in path separator form
+     */
+    public Map<String, String> getMappingWithSeps() {
+        return mappingWithSeps;
+    }
+
+    /**
+     * Gets packages mapping in dot form.
+     *
+     * @return unmodifiable packages mapping in dot form
+     */
+    public Map<String, String> getMappingWithDots() {
+        return mappingWithDots;
+    }
+
+    /**
+     * Gets packages mapping fingerprint. Two packages mappings defining the same mappings have the same fingerprint
+     * regardless of their configuration form.
+     *
+     * @return hexadecimal packages mapping fingerprint
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Writes this packages mapping in compact binary form. The stream is not closed by this method.
+     *
+     * @param os stream to write to
+     * @throws IOException if some I/O error occurs
+     */
+    public void writeTo(final OutputStream os) throws IOException {
+        final DataOutputStream dos = new DataOutputStream(os);
+        dos.write(MAGIC);
+        dos.writeByte(FORMAT_VERSION);
+        dos.writeInt(mappingWithSeps.size());
+        for (Map.Entry<String, String> mapping : new TreeMap<>(mappingWithSeps).entrySet()) {
+            dos.writeUTF(mapping.getKey());
+            dos.writeUTF(mapping.getValue());
+        }
+        dos.writeUTF(fingerprint);
+        dos.flush();
+    }
+
+    Transformer getTransformer(final TransformerBuilder builder) {
+        final List<Object> key = Arrays.asList(builder.getClass(), builder.getTextResources());
+        synchronized (transformers) {
+            final WeakReference<Transformer> reference = transformers.get(key);
+            Transformer retVal = reference != null ? reference.get() : null;
+            if (retVal == null) {
+                retVal = builder.newInstance(mappingWithSeps, mappingWithDots);
+                transformers.put(key, new WeakReference<>(retVal));
+                TRANSFORMERS.put(retVal, this);
+            }
+            return retVal;
+        }
+    }
+
+    private static boolean isBinary(final byte[] content) {
+        return content.length > MAGIC.length && Arrays.equals(MAGIC, Arrays.copyOf(content, MAGIC.length));
+    }
+
+    private static PackagesMapping readBinary(final byte[] content) throws IOException {
+        final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(content, MAGIC.length, content.length - MAGIC.length));
+        final int version = dis.readUnsignedByte();
+        if (version != FORMAT_VERSION) throw new IllegalArgumentException("Unsupported binary packages mapping version " + version);
+        final int size = dis.readInt();
+        if (size <= 0 || size > MAX_MAPPINGS) throw new IllegalArgumentException("Invalid binary packages mapping");
+        final Map<String, String> mappingWithSeps = new HashMap<>(size * 2);
+        final Map<String, String> mappingWithDots = new HashMap<>(size * 2);
+        String from, to;
+        for (int i = 0; i < size; i++) {
+            from = dis.readUTF();
+            to = dis.readUTF();
+            mappingWithSeps.put(from, to);
+            mappingWithDots.put(from.replace(SEP, DOT), to.replace(SEP, DOT));
+        }
+        final String fingerprint = fingerprint(mappingWithSeps);
+        if (!fingerprint.equals(dis.readUTF())) throw new IllegalArgumentException("Corrupted binary packages mapping");
+        return new PackagesMapping(mappingWithSeps, mappingWithDots, fingerprint);
+    }
+
+    private static PackagesMapping readProperties(final byte[] content) throws IOException {
+        final Properties packagesMapping = new Properties();
+        packagesMapping.load(new ByteArrayInputStream(content));
+        final Map<String, String> mappingWithSeps = new HashMap<>();
+        final Map<String, String> mappingWithDots = new HashMap<>();
+        for (String from : packagesMapping.stringPropertyNames()) {
+            addMapping(mappingWithSeps, mappingWithDots, from, packagesMapping.getProperty(from));
+        }
+        validate(mappingWithSeps);
+        return new PackagesMapping(mappingWithSeps, mappingWithDots, fingerprint(mappingWithSeps));
+    }
+
+    private static void addMapping(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots, final String from, final String to) {
+        if (from == null || to == null) throw new IllegalArgumentException("Package definition cannot be null");
+        if (from.length() == 0 || to.length() == 0) throw new IllegalArgumentException("Package definition cannot be empty string");
+        if (to.indexOf(DOT) != -1 || from.indexOf(DOT) != -1) {
+            throw new IllegalArgumentException("Packages mapping must be defined in path separator format only");
+        }
+        if (from.equals(to)) throw new IllegalArgumentException("Identical package mapping detected: " + from + " -> " + to);
+        mappingWithSeps.put(from, to);
+        mappingWithDots.put(from.replace(SEP, DOT), to.replace(SEP, DOT));
+    }
+
+    private static void validate(final Map<String, String> mappingWithSeps) {
+        if (mappingWithSeps.size() == 0) throw new IllegalStateException("No packages mapping was defined");
+        if (mappingWithSeps.size() > MAX_MAPPINGS) throw new IllegalStateException("Packages mapping count exceeded value " + MAX_MAPPINGS);
+        checkSubstrings(mappingWithSeps.keySet());
+    }
+
+    /**
+     * Ensures no package is a substring of another package. Packages are sorted first, so every package
+     * being a prefix of another package is detected by comparing neighbours. Once packages are known to be
+     * prefix free only the greatest package not greater than a suffix of another package can be its prefix,
+     * thus every package suffix is checked with single binary search.
+     *
+     * @param packages packages to inspect
+     * @throws IllegalArgumentException if some package is a substring of another package
+     */
+    private static void checkSubstrings(final Set<String> packages) {
+        final String[] sorted = packages.toArray(new String[packages.size()]);
+        Arrays.sort(sorted);
+        final BitSet firstChars = new BitSet();
+        for (int i = 0; i < sorted.length; i++) {
+            firstChars.set(sorted[i].charAt(0));
+            if (i > 0 && sorted[i].startsWith(sorted[i - 1])) {
+                throw new IllegalArgumentException("Package " + sorted[i - 1] + " is substring of package " + sorted[i]);
+            }
+        }
+        int candidate;
+        for (String packageName : sorted) {
+            for (int start = 1; start < packageName.length(); start++) {
+                if (!firstChars.get(packageName.charAt(start))) continue;
+                candidate = floor(sorted, packageName, start);
+                if (candidate != -1 && packageName.startsWith(sorted[candidate], start)) {
+                    throw new IllegalArgumentException("Package " + sorted[candidate] + " is substring of package " + packageName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns index of the greatest package not greater than the suffix of given string.
+     *
+     * @param sorted sorted packages
+     * @param s string
+     * @param start index of the suffix start in the string
+     * @return package index or <code>-1</code> if all packages are greater than the suffix
+     */
+    private static int floor(final String[] sorted, final String s, final int start) {
+        int low = 0, high = sorted.length - 1, middle, diff;
+        while (low <= high) {
+            middle = (low + high) >>> 1;
+            diff = compare(sorted[middle], s, start);
+            if (diff == 0) return middle;
+            if (diff < 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private static int compare(final String packageName, final String s, final int start) {
+        final int length = Math.min(packageName.length(), s.length() - start);
+        int diff;
+        for (int i = 0; i < length; i++) {
+            diff = packageName.charAt(i) - s.charAt(start + i);
+            if (diff != 0) return diff;
+        }
+        return packageName.length() - (s.length() - start);
+    }
+
+    private static String fingerprint(final Map<String, String> mappingWithSeps) {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> mapping : new TreeMap<>(mappingWithSeps).entrySet()) {
+            sb.append(mapping.getKey()).append('=').append(mapping.getValue()).append('\n');
+        }
+        return toHex(hash(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] readAll(final InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            baos.write(buffer, 0, count);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] hash(final byte[] data) {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM).digest(data);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // should never happen
+        }
+    }
+
+    private static String toHex(final byte[] data) {
+        final StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void safeClose(final Closeable c) {
+        try {
+            if (c != null) c.close();
+        } catch (final Throwable ignored) {}
+    }
+
+}
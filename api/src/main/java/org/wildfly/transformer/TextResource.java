@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Text resource type whose content references mapped packages.
+ * Every text resource type is selected by resource name (suffix, path prefix or exact path)
+ * and defines which packages mapping forms its content is rewritten with.
+ * Transformers handle {@link #getDefaults() default text resource types} and types registered
+ * via {@link TransformerBuilder#addTextResource(TextResource)}.
+ * Instances of this class are immutable and thread safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class TextResource {
+
+    /**
+     * Content references packages in path separator form (e.g. resource paths, manifest section names).
+     */
+    public static final int SEPS = 1;
+    /**
+     * Content references packages in dot form (e.g. fully qualified class names).
+     */
+    public static final int DOTS = 2;
+
+    private static final int SUFFIX = 0;
+    private static final int PREFIX = 1;
+    private static final int PATH = 2;
+    private static final int MANIFEST = 3;
+
+    private static final List<TextResource> DEFAULTS = Collections.unmodifiableList(Arrays.asList(
+        suffix(".xml", DOTS),
+        prefix("META-INF/services/", DOTS, true),
+        manifest("META-INF/MANIFEST.MF"),
+        suffix(".properties", SEPS | DOTS),
+        suffix(".tld", DOTS),
+        suffix(".jsp", DOTS),
+        suffix(".jspf", DOTS),
+        suffix(".jspx", DOTS),
+        suffix(".tag", DOTS),
+        suffix(".tagx", DOTS)
+    ));
+
+    private final int selector;
+    private final String name;
+    private final int forms;
+    private final boolean dottedName;
+
+    private TextResource(final int selector, final String name, final int forms, final boolean dottedName) {
+        if (name == null || name.isEmpty()) throw new IllegalArgumentException("Parameter cannot be neither null nor empty string");
+        if (forms == 0 || (forms & ~(SEPS | DOTS)) != 0) throw new IllegalArgumentException("Invalid packages mapping forms " + forms);
+        this.selector = selector;
+        this.name = name;
+        this.forms = forms;
+        this.dottedName = dottedName;
+    }
+
+    /**
+     * Creates text resource type selected by resource name suffix (e.g. file extension).
+     *
+     * @param suffix resource name suffix
+     * @param forms packages mapping forms content is rewritten with, combination of {@link #SEPS} and {@link #DOTS} flags
+     * @return text resource type
+     * @throws IllegalArgumentException if suffix is either <code>null</code> or empty string or if forms are not valid
+     */
+    public static TextResource suffix(final String suffix, final int forms) {
+        return new TextResource(SUFFIX, suffix, forms, false);
+    }
+
+    /**
+     * Creates text resource type selected by resource path prefix (e.g. directory).
+     *
+     * @param prefix resource path prefix
+     * @param forms packages mapping forms content is rewritten with, combination of {@link #SEPS} and {@link #DOTS} flags
+     * @param dottedName whether resource name references package in dot form (e.g. service interface name)
+     * @return text resource type
+     * @throws IllegalArgumentException if prefix is either <code>null</code> or empty string or if forms are not valid
+     */
+    public static TextResource prefix(final String prefix, final int forms, final boolean dottedName) {
+        return new TextResource(PREFIX, prefix, forms, dottedName);
+    }
+
+    /**
+     * Creates text resource type selected by exact resource path.
+     *
+     * @param path resource path
+     * @param forms packages mapping forms content is rewritten with, combination of {@link #SEPS} and {@link #DOTS} flags
+     * @return text resource type
+     * @throws IllegalArgumentException if path is either <code>null</code> or empty string or if forms are not valid
+     */
+    public static TextResource path(final String path, final int forms) {
+        return new TextResource(PATH, path, forms, false);
+    }
+
+    /**
+     * Creates text resource type of jar manifest syntax selected by exact resource path.
+     * Manifest header values are unfolded and rewritten with packages mapping in both forms, exact package names
+     * in OSGi headers (e.g. <code>Export-Package</code>) are rewritten too.
+     *
+     * @param path resource path
+     * @return text resource type
+     * @throws IllegalArgumentException if path is either <code>null</code> or empty string
+     */
+    public static TextResource manifest(final String path) {
+        return new TextResource(MANIFEST, path, SEPS | DOTS, false);
+    }
+
+    /**
+     * Gets text resource types handled by every transformer.
+     *
+     * @return unmodifiable list of default text resource types
+     */
+    public static List<TextResource> getDefaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Returns the first text resource type matching given resource name.
+     *
+     * @param textResources text resource types in their priority order
+     * @param resourceName resource name
+     * @return text resource type or <code>null</code> if resource is not text resource
+     */
+    public static TextResource get(final List<TextResource> textResources, final String resourceName) {
+        for (TextResource textResource : textResources) {
+            if (textResource.matches(resourceName)) return textResource;
+        }
+        return null;
+    }
+
+    /**
+     * Returns <code>true</code> if given resource is of this text resource type.
+     *
+     * @param resourceName resource name
+     * @return <code>true</code> if resource name matches, <code>false</code> otherwise
+     */
+    public boolean matches(final String resourceName) {
+        if (selector == SUFFIX) return resourceName.endsWith(name);
+        if (selector == PREFIX) return resourceName.startsWith(name);
+        return resourceName.equals(name);
+    }
+
+    /**
+     * Gets packages mapping forms content is rewritten with.
+     *
+     * @return combination of {@link #SEPS} and {@link #DOTS} flags
+     */
+    public int getForms() {
+        return forms;
+    }
+
+    /**
+     * Returns <code>true</code> if resource name references package in dot form (e.g. service interface name).
+     *
+     * @return <code>true</code> if resource name is rewritten with packages mapping in dot form, <code>false</code> otherwise
+     */
+    public boolean isDottedName() {
+        return dottedName;
+    }
+
+    /**
+     * Returns <code>true</code> if resource content has jar manifest syntax.
+     *
+     * @return <code>true</code> if resource is jar manifest, <code>false</code> otherwise
+     */
+    public boolean isManifest() {
+        return selector == MANIFEST;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof TextResource)) return false;
+        final TextResource other = (TextResource) o;
+        return selector == other.selector && name.equals(other.name) && forms == other.forms && dottedName == other.dottedName;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((selector * 31 + name.hashCode()) * 31 + forms) * 31 + (dottedName ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        final String[] selectors = {"suffix", "prefix", "path", "manifest"};
+        return selectors[selector] + ':' + name + ':' + forms + (dottedName ? ":dotted" : "");
+    }
+
+}
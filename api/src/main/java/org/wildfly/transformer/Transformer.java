@@ -15,8 +15,21 @@
  */
 package org.wildfly.transformer;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.instrument.ClassFileTransformer;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
 import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Resource transformer can be used concurrently by multiple threads as instances of this class are thread safe.
@@ -36,22 +49,117 @@ public interface Transformer extends ClassFileTransformer {
      */
     Resource transform(final Resource r);
 
+    /**
+     * Detects whether the supplied resource needs to be transformed without transforming it.
+     * If this method returns <code>false</code> then {@link #transform(Resource)} method either returns <code>null</code>
+     * or resource with the same name and content. Implementations should answer from resource name and class constant pool
+     * without allocating output buffers. The default implementation transforms the resource.
+     *
+     * @param data resource data. The buffer must not be modified.
+     * @param off the index of the first resource byte in the buffer
+     * @param len count of resource bytes
+     * @param name resource name
+     * @return <code>true</code> if resource transformation is needed, <code>false</code> otherwise
+     */
+    default boolean requiresTransformation(final byte[] data, final int off, final int len, final String name) {
+        final byte[] resource = off == 0 && len == data.length ? data : Arrays.copyOfRange(data, off, off + len);
+        final Resource r = transform(new Resource(name, resource));
+        return r != null && (!name.equals(r.getName()) || !Arrays.equals(resource, r.getData()));
+    }
+
+    /**
+     * Detects whether transformation of the resource with given name may modify resource content.
+     * If this method returns <code>false</code> then {@link #transform(Resource)} method can only rename the resource,
+     * resource content is neither inspected nor modified, thus resources can be renamed without reading their content.
+     * The default implementation returns <code>true</code>.
+     *
+     * @param name resource name
+     * @return <code>true</code> if resource content may be transformed, <code>false</code> otherwise
+     */
+    default boolean transformsContent(final String name) {
+        return true;
+    }
+
+    /**
+     * Gets text resource types whose content is rewritten by this transformer
+     * (see {@link TransformerBuilder#addTextResource(TextResource)}).
+     * The default implementation returns {@link TextResource#getDefaults() default text resource types}.
+     *
+     * @return unmodifiable list of text resource types in their priority order
+     */
+    default List<TextResource> getTextResources() {
+        return TextResource.getDefaults();
+    }
+
+    /**
+     * Gets implementation specific statistics of this transformer (e.g. cache hits and misses).
+     * Statistics are counted since transformer creation and their names are implementation specific.
+     * The default implementation returns empty map.
+     *
+     * @return unmodifiable snapshot of statistics values by their names
+     */
+    default Map<String, Long> getStatistics() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Detects whether some entry of the supplied archive (including entries of nested jar, war, ear or rar archives)
+     * needs to be transformed. Archive is read till the first entry needing transformation is found.
+     * Content of entries which content is not transformed (see {@link #transformsContent(String)}) is skipped,
+     * such entries are inspected by their names only. The stream is not closed by this method.
+     *
+     * @param archive archive to inspect
+     * @return <code>true</code> if archive transformation is needed, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    default boolean requiresTransformation(final ZipInputStream archive) throws IOException {
+        byte[] buffer = new byte[8192];
+        ZipEntry entry;
+        String name;
+        int length, count;
+        boolean nestedArchive;
+        while ((entry = archive.getNextEntry()) != null) {
+            name = entry.getName();
+            nestedArchive = name.endsWith(".jar") || name.endsWith(".war") || name.endsWith(".ear") || name.endsWith(".rar");
+            if (!nestedArchive && !transformsContent(name)) {
+                if (requiresTransformation(buffer, 0, 0, name)) return true;
+                continue;
+            }
+            length = 0;
+            while ((count = archive.read(buffer, length, buffer.length - length)) != -1) {
+                length += count;
+                if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length << 1);
+            }
+            if (requiresTransformation(buffer, 0, length, name)) return true;
+            if (nestedArchive) {
+                if (requiresTransformation(new ZipInputStream(new ByteArrayInputStream(buffer, 0, length)))) return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * {@inheritDoc}
+     * Classes cannot be renamed while they are being defined, thus classes in mapped packages are not transformed.
      */
     @Override
     default byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
                              final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
-        final Resource r = transform(new Resource(className, classfileBuffer));
-        return r != null ? r.getData() : null;
+        if (className == null) return null; // hidden or anonymous class
+        final String resourceName = className + ".class";
+        if (!requiresTransformation(classfileBuffer, 0, classfileBuffer.length, resourceName)) return null;
+        final Resource r = transform(new Resource(resourceName, classfileBuffer));
+        return r != null && resourceName.equals(r.getName()) ? r.getData() : null;
     }
 
     /**
-     * Resource data.
+     * Resource data. Data can be provided either as byte array or as byte buffer (heap or direct one).
      */
     final class Resource {
         private final String name;
-        private final byte[] data;
+        private volatile byte[] data;
+        private final ByteBuffer buffer;
+        private final ByteBuffer[] segments;
 
         /**
          * Constructor
@@ -62,6 +170,46 @@ public interface Transformer extends ClassFileTransformer {
             if (name == null || data == null) throw new NullPointerException();
             this.name = name;
             this.data = data;
+            this.buffer = null;
+            this.segments = null;
+        }
+
+        /**
+         * Constructor
+         * @param name resource name
+         * @param data buffer containing resource data
+         * @param off the index of the first resource byte in the buffer
+         * @param len count of resource bytes
+         */
+        public Resource(final String name, final byte[] data, final int off, final int len) {
+            this(name, ByteBuffer.wrap(data, off, len));
+        }
+
+        /**
+         * Constructor. Resource data are bytes between buffer position and limit.
+         * Buffer content is not copied and buffer position and limit are not modified.
+         * @param name resource name
+         * @param data resource data
+         */
+        public Resource(final String name, final ByteBuffer data) {
+            if (name == null || data == null) throw new NullPointerException();
+            this.name = name;
+            this.buffer = data.slice();
+            this.segments = null;
+        }
+
+        /**
+         * Constructor. Resource data are concatenated bytes between positions and limits of given buffers.
+         * Buffers content is not copied, thus neither buffers content nor their positions and limits may be modified
+         * afterwards. Allows transformers to compose transformed content from original content slices and replacements.
+         * @param name resource name
+         * @param segments resource data segments
+         */
+        public Resource(final String name, final ByteBuffer[] segments) {
+            if (name == null || segments == null) throw new NullPointerException();
+            this.name = name;
+            this.buffer = null;
+            this.segments = segments;
         }
 
         /**
@@ -74,11 +222,123 @@ public interface Transformer extends ClassFileTransformer {
 
         /**
          * Gets resource data. The byte buffer returned by this method must not be modified.
+         * If resource was created from byte buffer or segments its content is copied to byte array on first invocation
+         * unless the buffer is backed by whole byte array.
          * @return resource data
          */
         public byte[] getData() {
+            if (data == null) {
+                if (segments != null) {
+                    final ByteBuffer target = ByteBuffer.allocate(getSize());
+                    copyTo(target);
+                    data = target.array();
+                } else if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length) {
+                    data = buffer.array();
+                } else {
+                    final byte[] retVal = new byte[buffer.remaining()];
+                    buffer.duplicate().get(retVal);
+                    data = retVal;
+                }
+            }
             return data;
         }
+
+        /**
+         * Gets resource data as byte buffer view. Resource data are bytes between returned buffer position and limit.
+         * The content of byte buffer returned by this method must not be modified.
+         * @return resource data view
+         */
+        public ByteBuffer getBuffer() {
+            return buffer != null ? buffer.duplicate() : ByteBuffer.wrap(getData());
+        }
+
+        /**
+         * Gets count of resource data bytes.
+         * @return resource size in bytes
+         */
+        public int getSize() {
+            if (segments == null) return buffer != null ? buffer.remaining() : data.length;
+            int retVal = 0;
+            for (final ByteBuffer segment : segments) {
+                retVal += segment.remaining();
+            }
+            return retVal;
+        }
+
+        /**
+         * Copies resource data to the target buffer. Data are written starting at target buffer position
+         * which is advanced by {@link #getSize()} bytes.
+         * @param target buffer to copy resource data to
+         * @throws java.nio.BufferOverflowException if there is insufficient space in target buffer
+         */
+        public void copyTo(final ByteBuffer target) {
+            if (segments == null) {
+                target.put(getBuffer());
+                return;
+            }
+            for (final ByteBuffer segment : segments) {
+                target.put(segment.duplicate());
+            }
+        }
+
+        /**
+         * Writes resource data to the output stream. Resource content is not materialized,
+         * data segments are written one by one.
+         * @param target stream to write resource data to
+         * @throws IOException if some I/O error occurs
+         */
+        public void writeTo(final OutputStream target) throws IOException {
+            if (segments == null) {
+                write(getBuffer(), target);
+                return;
+            }
+            for (final ByteBuffer segment : segments) {
+                write(segment, target);
+            }
+        }
+
+        /**
+         * Writes resource data to the channel using gathering (vectored) write operations.
+         * Resource content is not materialized. The channel must be in blocking mode, this method returns
+         * once all resource data are written.
+         * @param target channel to write resource data to
+         * @throws IOException if some I/O error occurs
+         * @throws IllegalBlockingModeException if target channel is selectable channel in non-blocking mode
+         */
+        public void writeTo(final GatheringByteChannel target) throws IOException {
+            if (target instanceof SelectableChannel && !((SelectableChannel) target).isBlocking()) {
+                throw new IllegalBlockingModeException();
+            }
+            final ByteBuffer[] buffers;
+            if (segments == null) {
+                buffers = new ByteBuffer[] {getBuffer()};
+            } else {
+                buffers = new ByteBuffer[segments.length];
+                for (int i = 0; i < segments.length; i++) {
+                    buffers[i] = segments[i].duplicate();
+                }
+            }
+            int first = 0;
+            while (first < buffers.length) {
+                target.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining()) first++;
+            }
+        }
+
+        private static void write(final ByteBuffer source, final OutputStream target) throws IOException {
+            if (source.hasArray()) {
+                target.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+            } else {
+                final ByteBuffer chunks = source.duplicate();
+                final byte[] chunk = new byte[Math.min(chunks.remaining(), 8192)];
+                int length;
+                while (chunks.hasRemaining()) {
+                    length = Math.min(chunks.remaining(), chunk.length);
+                    chunks.get(chunk, 0, length);
+                    target.write(chunk, 0, length);
+                }
+            }
+        }
     }
 
 }
@@ -15,15 +15,14 @@
  */
 package org.wildfly.transformer;
 
-import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import static java.lang.Thread.currentThread;
 
@@ -33,20 +32,16 @@ import static java.lang.Thread.currentThread;
  * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
  */
 public abstract class TransformerBuilder {
-    private static final String DEFAULT_CONFIG = "default.mapping";
-    private static final int MAX_MAPPINGS = 0xFFFF;
-    private static final char DOT = '.';
-    private static final char SEP = '/';
     private final Thread thread;
-    private final Map<String, String> mappingWithSeps;
-    private final Map<String, String> mappingWithDots;
     private InputStream mappingFile;
+    private PackagesMapping packagesMapping;
+    private Map<String, String> mappings;
+    private final List<TextResource> textResources = new ArrayList<>(TextResource.getDefaults());
+    private int customTextResourcesCount;
     private boolean built;
 
     protected TransformerBuilder() {
         thread = currentThread();
-        mappingWithSeps = new HashMap<>();
-        mappingWithDots = new HashMap<>();
     }
 
     /**
@@ -58,7 +53,7 @@ public abstract class TransformerBuilder {
      * Once this method is called it turns off <i>default packages mapping configuration</i>
      * and <i>user provided configuration</i> is used instead.
      *
-     * @param config packages mapping configuration file
+     * @param config packages mapping configuration file either in properties or binary form
      * @return this builder instance
      * @throws ConcurrentModificationException if this builder instance is used by multiple threads
      * @throws IllegalStateException if either this or {@link #build()} method have been already called
@@ -71,27 +66,102 @@ public abstract class TransformerBuilder {
         // preconditions
         if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
         if (built) throw new IllegalStateException("Builder instance have been already closed");
-        if (mappingFile != null) throw new IllegalStateException("This method can be called only once");
+        if (mappingFile != null || packagesMapping != null || mappings != null) throw new IllegalStateException("This method can be called only once");
         if (config == null || "".equals(config)) throw new IllegalArgumentException("Parameter cannot be neither null nor empty string");
         // implementation
-        final File userConfig = new File(config);
-        if (userConfig.exists() && userConfig.isFile()) {
-            mappingFile = new FileInputStream(userConfig);
-        } else {
-            mappingFile = TransformerBuilder.class.getResourceAsStream(config);
-        }
+        mappingFile = PackagesMapping.open(config);
         if (mappingFile == null) throw new IllegalArgumentException("Couldn't find specified config file neither on file system nor on class path");
         return this;
     }
 
     /**
-     * Creates new resource transformer and closes this builder instance.
+     * Uses already loaded packages mapping.
+     * Once this method is called it turns off <i>default packages mapping configuration</i>
+     * and <i>user provided configuration</i> is used instead.
+     *
+     * @param packagesMapping packages mapping
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either this or {@link #build()} method have been already called
+     * @throws IllegalArgumentException if method parameter is <code>null</code>
+     */
+    public final TransformerBuilder setPackagesMapping(final PackagesMapping packagesMapping) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (mappingFile != null || this.packagesMapping != null || mappings != null) throw new IllegalStateException("This method can be called only once");
+        if (packagesMapping == null) throw new IllegalArgumentException("Parameter cannot be null");
+        // implementation
+        this.packagesMapping = packagesMapping;
+        return this;
+    }
+
+    /**
+     * Adds packages mappings defined programmatically. This method can be called multiple times,
+     * all added mappings are validated together when transformer is built.
+     * Once this method is called it turns off <i>default packages mapping configuration</i>
+     * and <i>user provided configuration</i> is used instead.
      *
-     * @return new resource transformer
+     * @param mappings packages mappings in path separator form
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if either {@link #setPackagesMapping(String)},
+     * {@link #setPackagesMapping(PackagesMapping)} or {@link #build()} method have been already called
+     * @throws IllegalArgumentException if method parameter is <code>null</code>
+     * or if some package was already mapped to different package
+     */
+    public final TransformerBuilder addMappings(final Map<String, String> mappings) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (mappingFile != null || packagesMapping != null) throw new IllegalStateException("Packages mapping have been already set");
+        if (mappings == null) throw new IllegalArgumentException("Parameter cannot be null");
+        // implementation
+        if (this.mappings == null) {
+            this.mappings = new HashMap<>(mappings.size() * 2);
+        }
+        String previous;
+        for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+            previous = this.mappings.put(mapping.getKey(), mapping.getValue());
+            if (previous != null && !previous.equals(mapping.getValue())) {
+                throw new IllegalArgumentException("Package " + mapping.getKey() + " already mapped to package " + previous);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Registers text resource type whose content references mapped packages. This method can be called multiple times.
+     * Registered text resource types take precedence over {@link TextResource#getDefaults() default ones}
+     * in their registration order, thus default handling of some resources can be overridden.
+     *
+     * @param textResource text resource type
+     * @return this builder instance
+     * @throws ConcurrentModificationException if this builder instance is used by multiple threads
+     * @throws IllegalStateException if {@link #build()} method have been already called
+     * @throws IllegalArgumentException if method parameter is <code>null</code>
+     */
+    public final TransformerBuilder addTextResource(final TextResource textResource) {
+        // preconditions
+        if (thread != currentThread()) throw new ConcurrentModificationException("Builder instance used by multiple threads");
+        if (built) throw new IllegalStateException("Builder instance have been already closed");
+        if (textResource == null) throw new IllegalArgumentException("Parameter cannot be null");
+        // implementation
+        textResources.add(customTextResourcesCount++, textResource);
+        return this;
+    }
+
+    /**
+     * Creates resource transformer and closes this builder instance.
+     * Recently used packages mapping configurations are not parsed and validated again (see {@link PackagesMapping})
+     * and transformers built by the same builder implementation from the same packages mapping
+     * and the same text resource types are shared while they are in use.
+     *
+     * @return resource transformer
      * @throws ConcurrentModificationException if this builder instance is used by multiple threads
      * @throws IllegalStateException if this method have been already called or
-     * there was no packages mapping defined in configuration file or
-     * if packages mapping count in configuration file surpasses value <code>65535</code>
+     * there was no packages mapping defined in configuration file or added mappings or
+     * if packages mapping count in configuration file or added mappings surpasses value <code>65535</code>
      * @throws IllegalArgumentException if configuration file has invalid format or it contains identical package mapping
      * or if some package defined in one package mapping is a substring of package in another package mapping
      * @throws IOException if configuration reading process failed with unexpected I/O error
@@ -102,30 +172,25 @@ public abstract class TransformerBuilder {
         if (built) throw new IllegalStateException("Builder instance have been already closed");
         // implementation
         built = true;
-        try {
-            if (mappingFile == null) {
-                mappingFile = TransformerBuilder.class.getResourceAsStream(SEP + DEFAULT_CONFIG);
-            }
-            final Properties packagesMapping = new Properties();
-            packagesMapping.load(mappingFile);
-            String to;
-            for (String from : packagesMapping.stringPropertyNames()) {
-                to = packagesMapping.getProperty(from);
-                if (to.indexOf(DOT) != -1 || from.indexOf(DOT) != -1) {
-                    throw new IllegalArgumentException("Packages mapping config file must be property file in path separator format only");
-                }
-                addMapping(from, to);
-            }
-            if (mappingWithSeps.size() == 0) throw new IllegalStateException("No mapping was defined in packages mapping config file");
-        } finally {
-            safeClose(mappingFile);
+        if (packagesMapping == null && mappings != null) {
+            packagesMapping = PackagesMapping.create(mappings);
+        } else if (packagesMapping == null) {
+            packagesMapping = mappingFile != null ? PackagesMapping.load(mappingFile) : PackagesMapping.getDefault();
         }
+        return packagesMapping.getTransformer(this);
+    }
 
-        return newInstance(mappingWithSeps, mappingWithDots);
+    /**
+     * Gets text resource types new transformer instance has to handle, registered ones followed by default ones.
+     *
+     * @return unmodifiable list of text resource types in their priority order
+     */
+    protected final List<TextResource> getTextResources() {
+        return Collections.unmodifiableList(new ArrayList<>(textResources));
     }
 
     /**
-     * Creates new transformer instance.
+     * Creates new transformer instance. Text resource types to handle are provided by {@link #getTextResources()}.
      *
      * @param mappingWithSeps packages mapping in path separator form
      * @param mappingWithDots packages mapping in dot form
@@ -133,23 +198,4 @@ public abstract class TransformerBuilder {
      */
     public abstract Transformer newInstance(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots);
 
-    private void addMapping(final String from, final String to) {
-        if (from == null || to == null) throw new IllegalArgumentException("Package definition cannot be null");
-        if (from.length() == 0 || to.length() == 0) throw new IllegalArgumentException("Package definition cannot be empty string");
-        if (from.equals(to)) throw new IllegalArgumentException("Identical package mapping detected: " + from + " -> " + to);
-        for (String key : mappingWithSeps.keySet()) {
-            if (key.contains(from)) throw new IllegalArgumentException("Package " + from + " is substring of package " + key);
-            if (from.contains(key)) throw new IllegalArgumentException("Package " + key + " is substring of package " + from);
-        }
-        if (mappingWithSeps.size() > MAX_MAPPINGS) throw new IllegalStateException("Packages mapping count exceeded value " + MAX_MAPPINGS);
-        mappingWithSeps.put(from, to);
-        mappingWithDots.put(from.replace(SEP, DOT), to.replace(SEP, DOT));
-    }
-
-    private static void safeClose(final Closeable c) {
-        try {
-            if (c != null) c.close();
-        } catch (final Throwable ignored) {}
-    }
-
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.benchmarks;
+
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.objectweb.asm.ClassWriter;
+import org.wildfly.transformer.Transformer;
+import org.wildfly.transformer.TransformerBuilder;
+
+/**
+ * Generates packages mappings, class files and XML descriptors benchmarks are executed with.
+ * All inputs are generated from fixed seed so every benchmark run transforms the same content.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class BenchmarkSupport {
+
+    /**
+     * No-deps transformer engine identifier.
+     */
+    static final String NODEPS = "nodeps";
+    /**
+     * ASM based transformer engine identifier.
+     */
+    static final String ASM = "asm";
+
+    private static final long SEED = 42;
+    private static final String MAPPED_PACKAGE_PREFIX = "javax/bench/p";
+    private static final String UNMAPPED_PACKAGE_PREFIX = "org/example/p";
+
+    private BenchmarkSupport() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Creates transformer of given engine.
+     *
+     * @param engine either <code>NODEPS</code> or <code>ASM</code>
+     * @param mappingsCount packages mappings count
+     * @return transformer instance
+     * @throws IOException if transformer creation failed
+     */
+    static Transformer newTransformer(final String engine, final int mappingsCount) throws IOException {
+        final TransformerBuilder builder;
+        if (NODEPS.equals(engine)) {
+            builder = new org.wildfly.transformer.nodeps.TransformerFactoryImpl().newTransformer();
+        } else if (ASM.equals(engine)) {
+            builder = new org.wildfly.transformer.asm.TransformerFactoryImpl().newTransformer();
+        } else {
+            throw new IllegalArgumentException("Unknown transformer engine " + engine);
+        }
+        return builder.addMappings(newMappings(mappingsCount)).build();
+    }
+
+    /**
+     * Creates packages mappings <code>javax/bench/p&lt;i&gt;/</code> to <code>jakarta/bench/p&lt;i&gt;/</code>.
+     *
+     * @param mappingsCount packages mappings count
+     * @return packages mappings in path separator form
+     */
+    static Map<String, String> newMappings(final int mappingsCount) {
+        final Map<String, String> retVal = new HashMap<>(mappingsCount * 2);
+        for (int i = 0; i < mappingsCount; i++) {
+            retVal.put(MAPPED_PACKAGE_PREFIX + i + "/", "jakarta/bench/p" + i + "/");
+        }
+        return retVal;
+    }
+
+    /**
+     * Generates class file declaring given count of fields. Every field type lives either in mapped
+     * or in unmapped package, thus class size grows with fields count and hit density with hit ratio.
+     *
+     * @param className internal class name
+     * @param fieldsCount count of fields
+     * @param hitRatio ratio of fields having type in mapped package
+     * @param mappingsCount packages mappings count
+     * @param random random generator
+     * @return class file bytes
+     */
+    static byte[] newClass(final String className, final int fieldsCount, final double hitRatio, final int mappingsCount, final Random random) {
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, className, null, "java/lang/Object", null);
+        for (int i = 0; i < fieldsCount; i++) {
+            cw.visitField(ACC_PRIVATE, "field" + i, "L" + newTypeName(i, hitRatio, mappingsCount, random) + ";", null, null).visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates class files declaring given count of fields.
+     *
+     * @param classesCount count of classes
+     * @param fieldsCount count of fields in every class
+     * @param hitRatio ratio of fields having type in mapped package
+     * @param mappingsCount packages mappings count
+     * @return class file resources
+     */
+    static Transformer.Resource[] newClasses(final int classesCount, final int fieldsCount, final double hitRatio, final int mappingsCount) {
+        final Random random = new Random(SEED);
+        final Transformer.Resource[] retVal = new Transformer.Resource[classesCount];
+        for (int i = 0; i < classesCount; i++) {
+            final String className = "org/example/bench/Generated" + i;
+            retVal[i] = new Transformer.Resource(className + ".class", newClass(className, fieldsCount, hitRatio, mappingsCount, random));
+        }
+        return retVal;
+    }
+
+    /**
+     * Generates web application XML descriptor of approximately given size.
+     *
+     * @param size descriptor size in bytes
+     * @param hitRatio ratio of servlet classes in mapped package
+     * @param mappingsCount packages mappings count
+     * @return descriptor bytes
+     */
+    static byte[] newXml(final int size, final double hitRatio, final int mappingsCount) {
+        final Random random = new Random(SEED);
+        final StringBuilder sb = new StringBuilder(size + 128);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<web-app version=\"4.0\">\n");
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append("  <servlet>\n    <servlet-name>servlet").append(i).append("</servlet-name>\n    <servlet-class>");
+            sb.append(newTypeName(i, hitRatio, mappingsCount, random).replace('/', '.'));
+            sb.append("</servlet-class>\n  </servlet>\n");
+        }
+        sb.append("</web-app>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String newTypeName(final int index, final double hitRatio, final int mappingsCount, final Random random) {
+        if (random.nextDouble() < hitRatio) {
+            return MAPPED_PACKAGE_PREFIX + random.nextInt(mappingsCount) + "/Type" + index;
+        }
+        return UNMAPPED_PACKAGE_PREFIX + index + "/Type" + index;
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.transformer.Transformer;
+
+/**
+ * Measures class file transformation depending on class size and density of mapped packages references.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassTransformationBenchmark {
+
+    private static final int CLASSES_COUNT = 16;
+
+    @Param({BenchmarkSupport.NODEPS, BenchmarkSupport.ASM})
+    public String engine;
+
+    @Param({"16", "256", "4096"})
+    public int fieldsCount;
+
+    @Param({"0.0", "0.1", "1.0"})
+    public double hitRatio;
+
+    @Param({"100"})
+    public int mappingsCount;
+
+    private Transformer transformer;
+    private Transformer.Resource[] classes;
+
+    @Setup
+    public void setup() throws IOException {
+        transformer = BenchmarkSupport.newTransformer(engine, mappingsCount);
+        classes = BenchmarkSupport.newClasses(CLASSES_COUNT, fieldsCount, hitRatio, mappingsCount);
+    }
+
+    @Benchmark
+    public int transform(final ThreadState state) {
+        return state.transform(transformer, classes[state.next(classes.length)]);
+    }
+
+    @Benchmark
+    public boolean requiresTransformation(final ThreadState state) {
+        final Transformer.Resource r = classes[state.next(classes.length)];
+        final byte[] data = r.getData();
+        return transformer.requiresTransformation(data, 0, data.length, r.getName());
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.benchmarks;
+
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.wildfly.transformer.Transformer;
+
+/**
+ * Per thread benchmark state. It cycles through benchmark inputs and holds reusable buffer
+ * transformed resources are written to, so transformers producing resource segments
+ * and transformers producing byte arrays are compared including output materialization.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+@State(Scope.Thread)
+public class ThreadState {
+
+    private static final int INITIAL_SINK_SIZE = 64 * 1024;
+
+    private ByteBuffer sink = ByteBuffer.allocate(INITIAL_SINK_SIZE);
+    private int index;
+
+    /**
+     * Returns index of the next input to transform.
+     *
+     * @param inputsCount count of inputs
+     * @return input index
+     */
+    int next(final int inputsCount) {
+        if (++index == inputsCount) index = 0;
+        return index;
+    }
+
+    /**
+     * Transforms the resource and writes transformed content to the reusable buffer.
+     *
+     * @param transformer transformer to use
+     * @param r resource to transform
+     * @return transformed resource size or <code>-1</code> if resource was not transformed
+     */
+    int transform(final Transformer transformer, final Transformer.Resource r) {
+        final Transformer.Resource newResource = transformer.transform(r);
+        if (newResource == null) return -1;
+        final int size = newResource.getSize();
+        if (size > sink.capacity()) sink = ByteBuffer.allocate(size);
+        sink.clear();
+        newResource.copyTo(sink);
+        return sink.position();
+    }
+
+}
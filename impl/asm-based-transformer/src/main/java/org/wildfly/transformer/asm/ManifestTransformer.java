@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.asm;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wildfly.transformer.TextResource;
+
+/**
+ * Jar manifest transformer used by transformer to rewrite {@link TextResource#manifest(String) manifest}
+ * text resources. Manifest is processed line by line, continuation lines are unfolded before header value is rewritten
+ * with packages mapping in both forms. Besides package name prefixes (e.g. <code>javax.inject.</code>) exact package
+ * names are matched too if followed by <code>';'</code>, <code>','</code>, <code>'"'</code> or by the end of header value,
+ * thus OSGi headers like <code>Export-Package: javax.inject;version=1</code> are rewritten.
+ * Rewritten headers are wrapped to lines of at most 72 bytes, unchanged lines are kept byte for byte.
+ * Instances of this class are immutable and thread safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class ManifestTransformer {
+
+    private static final int MAX_LINE_LENGTH = 72;
+    private static final String HEADER_SEPARATOR = ": ";
+    private static final char END_OF_VALUE = '\n';
+    private static final char[] PACKAGE_NAME_TERMINATORS = {';', ',', '"', END_OF_VALUE};
+    private static final byte[] DEFAULT_LINE_SEPARATOR = {'\r', '\n'};
+
+    private final PackageNameTrie packageNames;
+
+    /**
+     * Constructor.
+     *
+     * @param mappingWithSeps packages mapping in path separator form
+     * @param mappingWithDots packages mapping in dot form
+     * @throws IllegalArgumentException if some package is a substring of another package
+     */
+    ManifestTransformer(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots) {
+        // package names without '/' char are the same in both forms, replacement in dot form wins
+        final Map<String, String> mapping = new HashMap<>(mappingWithSeps);
+        mapping.putAll(mappingWithDots);
+        String from, to;
+        for (Map.Entry<String, String> mappingEntry : mappingWithDots.entrySet()) {
+            from = mappingEntry.getKey();
+            to = mappingEntry.getValue();
+            if (!from.endsWith(".") || !to.endsWith(".")) continue;
+            for (char terminator : PACKAGE_NAME_TERMINATORS) {
+                mapping.put(from.substring(0, from.length() - 1) + terminator, to.substring(0, to.length() - 1) + terminator);
+            }
+        }
+        packageNames = new PackageNameTrie(mapping);
+    }
+
+    /**
+     * Returns <code>true</code> if some manifest header value references mapped package.
+     *
+     * @param manifest buffer containing manifest bytes
+     * @param offset the index of the first manifest byte in the buffer
+     * @param limit first index not belonging to the manifest
+     * @return <code>true</code> if manifest needs to be transformed, <code>false</code> otherwise
+     */
+    boolean requiresTransformation(final ByteBuffer manifest, final int offset, final int limit) {
+        return transform(manifest, offset, limit) != null;
+    }
+
+    /**
+     * Transforms manifest. Returned segments are either original manifest slices or rewritten headers,
+     * thus unchanged lines are not copied. Manifests not encoded in UTF-8 are left untouched.
+     *
+     * @param manifest buffer containing manifest bytes
+     * @param offset the index of the first manifest byte in the buffer
+     * @param limit first index not belonging to the manifest
+     * @return transformed manifest segments or <code>null</code> if manifest was not modified
+     */
+    ByteBuffer[] transform(final ByteBuffer manifest, final int offset, final int limit) {
+        List<ByteBuffer> segments = null;
+        int lineStart = offset, last = offset, lineEnd, next;
+        byte[] lineSeparator, newLine;
+        while (lineStart < limit) {
+            // logical line spans over physical lines followed by continuation lines starting with single space
+            lineEnd = endOfLine(manifest, lineStart, limit);
+            next = skipLineSeparator(manifest, lineEnd, limit);
+            lineSeparator = next > lineEnd ? toBytes(manifest, lineEnd, next) : DEFAULT_LINE_SEPARATOR;
+            while (next < limit && manifest.get(next) == ' ') {
+                lineEnd = endOfLine(manifest, next, limit);
+                next = skipLineSeparator(manifest, lineEnd, limit);
+            }
+            newLine = transformHeader(manifest, lineStart, lineEnd, lineSeparator);
+            if (newLine != null) {
+                if (segments == null) segments = new ArrayList<>();
+                segments.add(slice(manifest, last, lineStart));
+                segments.add(ByteBuffer.wrap(newLine));
+                last = lineEnd; // original line separator is kept
+            }
+            lineStart = next;
+        }
+        if (segments == null) return null;
+        segments.add(slice(manifest, last, limit));
+        return segments.toArray(new ByteBuffer[segments.size()]);
+    }
+
+    /**
+     * Rewrites single manifest header.
+     *
+     * @param manifest buffer containing manifest bytes
+     * @param offset the index of the first header byte in the buffer
+     * @param limit index of the line separator terminating the header
+     * @param lineSeparator line separator used to wrap rewritten header
+     * @return rewritten header wrapped to lines of at most 72 bytes or <code>null</code> if header was not modified
+     */
+    private byte[] transformHeader(final ByteBuffer manifest, final int offset, final int limit, final byte[] lineSeparator) {
+        final String header = unfold(manifest, offset, limit);
+        if (header == null) return null;
+        final int separatorIndex = header.indexOf(HEADER_SEPARATOR);
+        if (separatorIndex == -1) return null;
+        final String value = header.substring(separatorIndex + HEADER_SEPARATOR.length()) + END_OF_VALUE;
+        final String newValue = packageNames.replaceAll(value);
+        if (newValue == value) return null;
+        final String newHeader = header.substring(0, separatorIndex + HEADER_SEPARATOR.length()) + newValue.substring(0, newValue.length() - 1);
+        return wrap(newHeader.getBytes(StandardCharsets.UTF_8), lineSeparator);
+    }
+
+    /**
+     * Joins physical lines of a header and decodes it.
+     *
+     * @param manifest buffer containing manifest bytes
+     * @param offset the index of the first header byte in the buffer
+     * @param limit index of the line separator terminating the header
+     * @return decoded header or <code>null</code> if header is not encoded in UTF-8
+     */
+    private static String unfold(final ByteBuffer manifest, final int offset, final int limit) {
+        final ByteBuffer header = ByteBuffer.allocate(limit - offset);
+        byte b;
+        for (int i = offset; i < limit; i++) {
+            b = manifest.get(i);
+            if (b == '\r' || b == '\n') {
+                i = skipLineSeparator(manifest, i, limit); // continuation line leading space is skipped too
+            } else {
+                header.put(b);
+            }
+        }
+        header.flip();
+        try {
+            final CharBuffer retVal = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(header);
+            return retVal.toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Splits header to the first line of at most 72 bytes followed by continuation lines consisting
+     * of single space and at most 71 bytes. Multi-byte characters are never split.
+     *
+     * @param header encoded header
+     * @param lineSeparator line separator
+     * @return wrapped header without trailing line separator
+     */
+    private static byte[] wrap(final byte[] header, final byte[] lineSeparator) {
+        final ByteBuffer retVal = ByteBuffer.allocate(header.length + (header.length / (MAX_LINE_LENGTH - 1) + 1) * (lineSeparator.length + 1));
+        int start = 0, end, lineLength = MAX_LINE_LENGTH;
+        while (true) {
+            end = Math.min(header.length, start + lineLength);
+            while (end < header.length && end > start + 1 && (header[end] & 0xC0) == 0x80) end--;
+            retVal.put(header, start, end - start);
+            if (end == header.length) break;
+            retVal.put(lineSeparator).put((byte) ' ');
+            start = end;
+            lineLength = MAX_LINE_LENGTH - 1;
+        }
+        final byte[] bytes = new byte[retVal.position()];
+        retVal.flip();
+        retVal.get(bytes);
+        return bytes;
+    }
+
+    private static int endOfLine(final ByteBuffer manifest, int position, final int limit) {
+        byte b;
+        while (position < limit) {
+            b = manifest.get(position);
+            if (b == '\r' || b == '\n') break;
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipLineSeparator(final ByteBuffer manifest, int position, final int limit) {
+        if (position < limit && manifest.get(position) == '\r') position++;
+        if (position < limit && manifest.get(position) == '\n') position++;
+        return position;
+    }
+
+    private static byte[] toBytes(final ByteBuffer source, final int from, final int to) {
+        final byte[] retVal = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            retVal[i - from] = source.get(i);
+        }
+        return retVal;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer source, final int from, final int to) {
+        final ByteBuffer retVal = source.duplicate();
+        retVal.limit(to);
+        retVal.position(from);
+        return retVal;
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.asm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.wildfly.transformer.PackagesMapping;
+
+/**
+ * Aho-Corasick automaton compiled from packages mapping used by transformer to rewrite
+ * resource names, descriptors, signatures, string constants and text resources.
+ * Trie nodes are linked with failure links, thus every name is inspected in a single pass in linear time
+ * regardless of packages mapping size and the trie is never walked twice from the same position.
+ * Packages mapping must not contain package being a substring of another package (see {@link PackagesMapping}).
+ * Thus every match is reported once it ends and no reported match can overlap with preceding one
+ * unless it starts later, so the leftmost non overlapping package names are replaced.
+ * Trie is stored in compressed sparse rows so its size is proportional to packages mapping size.
+ * Instances of this class are immutable and thread safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class PackageNameTrie {
+
+    /**
+     * Trie root node. No edge leads to root node thus <code>ROOT</code> represents missing edge too.
+     */
+    private static final int ROOT = 0;
+
+    /**
+     * Count of characters having root node children stored in direct lookup table.
+     */
+    private static final int ASCII = 128;
+
+    /**
+     * Edges of node <code>n</code> are stored between indices <code>edgeStarts[n]</code> (inclusive)
+     * and <code>edgeStarts[n + 1]</code> (exclusive) sorted by their labels.
+     */
+    private final int[] edgeStarts;
+    private final char[] edgeLabels;
+    private final int[] edgeTargets;
+
+    /**
+     * Root node children indexed by ASCII characters.
+     */
+    private final int[] rootChildren = new int[ASCII];
+
+    /**
+     * Holds for every node the node representing its longest proper suffix present in the trie.
+     */
+    private final int[] failures;
+
+    /**
+     * Holds for every node the length of string it represents.
+     */
+    private final int[] depths;
+
+    /**
+     * Holds for every node the replacement of package name ending in that node or <code>null</code> if there is no such package name.
+     */
+    private final String[] replacements;
+
+    /**
+     * Constructor.
+     *
+     * @param mapping packages mapping
+     * @throws IllegalArgumentException if some package is a substring of another package
+     */
+    PackageNameTrie(final Map<String, String> mapping) {
+        // package names are inserted in sorted order so the only child that can be shared is the last one created
+        final String[] packageNames = mapping.keySet().toArray(new String[mapping.size()]);
+        Arrays.sort(packageNames);
+        int nodesCount = 1;
+        for (int i = 0; i < packageNames.length; i++) {
+            nodesCount += packageNames[i].length() - (i > 0 ? commonPrefixLength(packageNames[i - 1], packageNames[i]) : 0);
+        }
+        final int[] parents = new int[nodesCount];
+        final char[] labels = new char[nodesCount];
+        final int[] lastChildren = new int[nodesCount];
+        final int[] depths = new int[nodesCount];
+        final String[] replacements = new String[nodesCount];
+        int usedNodes = 1, node, child;
+        char c;
+        for (String packageName : packageNames) {
+            if (packageName.isEmpty()) throw new IllegalArgumentException("Package cannot be empty string");
+            node = ROOT;
+            for (int i = 0; i < packageName.length(); i++) {
+                if (replacements[node] != null) throw new IllegalArgumentException("Package " + packageName.substring(0, i) + " is substring of package " + packageName);
+                c = packageName.charAt(i);
+                child = lastChildren[node];
+                if (child == ROOT || labels[child] != c) {
+                    child = usedNodes++;
+                    parents[child] = node;
+                    labels[child] = c;
+                    depths[child] = i + 1;
+                    lastChildren[node] = child;
+                }
+                node = child;
+            }
+            replacements[node] = mapping.get(packageName);
+        }
+        // convert trie to compressed sparse rows, children were created in their labels order
+        edgeStarts = new int[usedNodes + 1];
+        for (int n = 1; n < usedNodes; n++) {
+            edgeStarts[parents[n] + 1]++;
+        }
+        for (int n = 0; n < usedNodes; n++) {
+            edgeStarts[n + 1] += edgeStarts[n];
+        }
+        edgeLabels = new char[usedNodes];
+        edgeTargets = new int[usedNodes];
+        final int[] edgeCounts = new int[usedNodes];
+        int index;
+        for (int n = 1; n < usedNodes; n++) {
+            index = edgeStarts[parents[n]] + edgeCounts[parents[n]]++;
+            edgeLabels[index] = labels[n];
+            edgeTargets[index] = n;
+            if (parents[n] == ROOT && labels[n] < ASCII) rootChildren[labels[n]] = n;
+        }
+        this.depths = depths;
+        this.replacements = replacements;
+        // compute failure links in breadth first order, nodes are created in depth first order
+        failures = new int[usedNodes];
+        final int[] queue = new int[usedNodes];
+        int head = 0, tail = 0, failure;
+        queue[tail++] = ROOT;
+        while (head < tail) {
+            node = queue[head++];
+            for (int e = edgeStarts[node]; e < edgeStarts[node + 1]; e++) {
+                child = edgeTargets[e];
+                queue[tail++] = child;
+                if (node == ROOT) continue;
+                failure = next(failures[node], edgeLabels[e]);
+                failures[child] = failure;
+                if (replacements[failure] != null) {
+                    throw new IllegalArgumentException("Package " + mappingKey(failure, parents, labels) + " is substring of another package");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if name contains some package name.
+     *
+     * @param name name to inspect
+     * @return <code>true</code> if some package name was found, <code>false</code> otherwise
+     */
+    boolean contains(final String name) {
+        int node = ROOT;
+        for (int i = 0; i < name.length(); i++) {
+            node = next(node, name.charAt(i));
+            if (replacements[node] != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns name with the leftmost occurrence of package name replaced.
+     *
+     * @param name name to rewrite
+     * @return rewritten name or the same instance if name doesn't contain any package name
+     */
+    String replace(final String name) {
+        int node = ROOT;
+        for (int i = 0; i < name.length(); i++) {
+            node = next(node, name.charAt(i));
+            if (replacements[node] != null) {
+                return name.substring(0, i + 1 - depths[node]) + replacements[node] + name.substring(i + 1);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Returns name with all non overlapping occurrences of package names replaced.
+     *
+     * @param name name to rewrite
+     * @return rewritten name or the same instance if name doesn't contain any package name
+     */
+    String replaceAll(final String name) {
+        StringBuilder sb = null;
+        int last = 0, node = ROOT;
+        for (int i = 0; i < name.length(); i++) {
+            node = next(node, name.charAt(i));
+            if (replacements[node] == null) continue;
+            if (sb == null) sb = new StringBuilder(name.length() + 16);
+            sb.append(name, last, i + 1 - depths[node]).append(replacements[node]);
+            last = i + 1;
+            node = ROOT;
+        }
+        return sb == null ? name : sb.append(name, last, name.length()).toString();
+    }
+
+    /**
+     * Returns <code>true</code> if bytes contain some package name. Every byte is treated as a character,
+     * thus trie must be compiled from package names having every character representing single byte of their encoded form.
+     *
+     * @param data bytes to inspect
+     * @param offset the index of the first byte to inspect
+     * @param limit first index not belonging to inspected range
+     * @return <code>true</code> if some package name was found, <code>false</code> otherwise
+     */
+    boolean contains(final byte[] data, final int offset, final int limit) {
+        int node = ROOT;
+        for (int i = offset; i < limit; i++) {
+            node = next(node, (char) (data[i] & 0xFF));
+            if (replacements[node] != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns bytes with all non overlapping occurrences of package names replaced as sequence of segments.
+     * Segments are either original bytes slices or replacements, thus original bytes are not copied.
+     * Every byte is treated as a character, thus trie must be compiled from packages mapping having every character
+     * representing single byte of its encoded form.
+     *
+     * @param data buffer containing bytes to rewrite
+     * @param offset the index of the first byte to rewrite
+     * @param limit first index not belonging to rewritten range
+     * @return rewritten bytes segments or <code>null</code> if bytes don't contain any package name
+     */
+    ByteBuffer[] replaceAll(final ByteBuffer data, final int offset, final int limit) {
+        List<ByteBuffer> segments = null;
+        int last = offset, node = ROOT;
+        for (int i = offset; i < limit; i++) {
+            node = next(node, (char) (data.get(i) & 0xFF));
+            if (replacements[node] == null) continue;
+            if (segments == null) segments = new ArrayList<>();
+            segments.add(slice(data, last, i + 1 - depths[node]));
+            segments.add(ByteBuffer.wrap(replacements[node].getBytes(StandardCharsets.ISO_8859_1)));
+            last = i + 1;
+            node = ROOT;
+        }
+        if (segments == null) return null;
+        segments.add(slice(data, last, limit));
+        return segments.toArray(new ByteBuffer[segments.size()]);
+    }
+
+    /**
+     * Returns automaton state reached from given state by given character following failure links if needed.
+     *
+     * @param node current state
+     * @param c next character
+     * @return next state
+     */
+    private int next(int node, final char c) {
+        int retVal;
+        while (true) {
+            retVal = child(node, c);
+            if (retVal != ROOT || node == ROOT) return retVal;
+            node = failures[node];
+        }
+    }
+
+    /**
+     * Returns child of given node.
+     *
+     * @param node parent node
+     * @param c edge label
+     * @return child node or <code>ROOT</code> if there is no such child
+     */
+    private int child(final int node, final char c) {
+        if (node == ROOT && c < ASCII) return rootChildren[c];
+        int low = edgeStarts[node], high = edgeStarts[node + 1] - 1, middle;
+        while (low <= high) {
+            middle = (low + high) >>> 1;
+            if (edgeLabels[middle] == c) return edgeTargets[middle];
+            if (edgeLabels[middle] < c) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return ROOT;
+    }
+
+    private static String mappingKey(final int node, final int[] parents, final char[] labels) {
+        final StringBuilder sb = new StringBuilder();
+        for (int n = node; n != ROOT; n = parents[n]) {
+            sb.append(labels[n]);
+        }
+        return sb.reverse().toString();
+    }
+
+    private static ByteBuffer slice(final ByteBuffer source, final int from, final int to) {
+        final ByteBuffer retVal = source.duplicate();
+        retVal.limit(to);
+        retVal.position(from);
+        return retVal;
+    }
+
+    private static int commonPrefixLength(final String s1, final String s2) {
+        final int length = Math.min(s1.length(), s2.length());
+        for (int i = 0; i < length; i++) {
+            if (s1.charAt(i) != s2.charAt(i)) return i;
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.asm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Bounded memo cache of rewritten internal names, descriptors, signatures and string constants.
+ * Single cache is shared by all classes transformed by a transformer. If cache grows over its limit
+ * it is cleared. Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class RemappingCache {
+
+    private static final int MAX_SIZE = 64 * 1024;
+
+    private final PackageNameTrie packageNamesWithSeps;
+    private final PackageNameTrie packageNamesWithDots;
+    private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    RemappingCache(final PackageNameTrie packageNamesWithSeps, final PackageNameTrie packageNamesWithDots) {
+        this.packageNamesWithSeps = packageNamesWithSeps;
+        this.packageNamesWithDots = packageNamesWithDots;
+    }
+
+    /**
+     * Returns value with all mapped packages replaced.
+     *
+     * @param value internal name, descriptor, signature or string constant
+     * @return rewritten value, the same instance if nothing was replaced
+     */
+    String get(final String value) {
+        String retVal = cache.get(value);
+        if (retVal != null) {
+            hits.increment();
+            return retVal;
+        }
+        misses.increment();
+        retVal = replace(value);
+        if (cache.size() >= MAX_SIZE) cache.clear();
+        cache.put(value, retVal);
+        return retVal;
+    }
+
+    /**
+     * Gets count of cache hits.
+     *
+     * @return cache hits count
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets count of cache misses.
+     *
+     * @return cache misses count
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    private String replace(final String value) {
+        return packageNamesWithDots.replaceAll(packageNamesWithSeps.replaceAll(value));
+    }
+
+}
@@ -16,25 +16,20 @@
 package org.wildfly.transformer.asm;
 
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.objectweb.asm.AnnotationVisitor;
-import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.ConstantDynamic;
-import org.objectweb.asm.FieldVisitor;
-import org.objectweb.asm.Handle;
-import org.objectweb.asm.Label;
-import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
-import org.objectweb.asm.TypePath;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
 
+import org.wildfly.transformer.TextResource;
 import org.wildfly.transformer.Transformer;
 
 /**
@@ -43,7 +38,8 @@ import org.wildfly.transformer.Transformer;
  * Map javax.* classes to their jakarta.* equivalent as outlined on
  * https://github.com/eclipse-ee4j/jakartaee-platform/blob/master/namespace/mappings.adoc
  * 
- * TODO:  introduce META-INF/jakartasignature.prop file with version stamp so we can ignore jars already transformed.
+ * Archives transformed by tools are stamped with META-INF/jakartasignature.prop entry so they are not transformed again.
+ * Instances of this class are thread safe.
  *
  * @author Scott Marlow
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
@@ -51,379 +47,83 @@ import org.wildfly.transformer.Transformer;
 final class TransformerImpl implements Transformer {
 
     private static final String CLASS_SUFFIX = ".class";
-    private static final int CLASS_SUFFIX_LENGTH = CLASS_SUFFIX.length(); 
-    private static final String XML_SUFFIX = ".xml";
-    private static final String META_INF_SERVICES_PREFIX = "META-INF/services/";
-    private static final boolean useASM7 = getMajorJavaVersion() >= 11;
-    private boolean classTransformed;
-    private boolean alreadyTransformed;
-    private String changeClassName;
+    private static final int CONSTANT_UTF8_TAG = 1;
+    private static final String REMAPPING_CACHE_HITS = "remapping.cache.hits";
+    private static final String REMAPPING_CACHE_MISSES = "remapping.cache.misses";
     final Map<String, String> mappingWithSeps;
     final Map<String, String> mappingWithDots;
+    private final RemappingCache remappingCache;
+    private final PackageNameTrie packageNamesWithSeps;
+    private final PackageNameTrie packageNamesWithDots;
+    /**
+     * Packages (in both '/' and '.' format) searched for in class file bytes.
+     * Every package name character represents single byte of its UTF-8 encoded form.
+     */
+    private final PackageNameTrie patterns;
+    /**
+     * Packages mapping searched for in text resources bytes indexed by packages mapping forms
+     * (see {@link TextResource#SEPS} and {@link TextResource#DOTS}).
+     * Every package name character represents single byte of its UTF-8 encoded form.
+     */
+    private final PackageNameTrie[] textPatterns = new PackageNameTrie[TextResource.SEPS + TextResource.DOTS + 1];
+    /**
+     * Text resource types in their priority order.
+     */
+    private final List<TextResource> textResources;
+    private final ManifestTransformer manifestTransformer;
 
-    TransformerImpl(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots) {
+    TransformerImpl(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots, final List<TextResource> textResources) {
         this.mappingWithSeps = mappingWithSeps;
         this.mappingWithDots = mappingWithDots;
+        this.textResources = textResources;
+        manifestTransformer = new ManifestTransformer(mappingWithSeps, mappingWithDots);
+        packageNamesWithSeps = new PackageNameTrie(mappingWithSeps);
+        packageNamesWithDots = new PackageNameTrie(mappingWithDots);
+        remappingCache = new RemappingCache(packageNamesWithSeps, packageNamesWithDots);
+        final Map<String, String> encodedPackageNames = new HashMap<>((mappingWithSeps.size() + mappingWithDots.size()) * 2);
+        for (String packageName : mappingWithSeps.keySet()) {
+            encodedPackageNames.put(encode(packageName), packageName);
+        }
+        for (String packageName : mappingWithDots.keySet()) {
+            encodedPackageNames.put(encode(packageName), packageName);
+        }
+        patterns = new PackageNameTrie(encodedPackageNames);
+        final Map<String, String> encodedMappingWithSeps = new HashMap<>(mappingWithSeps.size() * 2);
+        for (Map.Entry<String, String> mapping : mappingWithSeps.entrySet()) {
+            encodedMappingWithSeps.put(encode(mapping.getKey()), encode(mapping.getValue()));
+        }
+        final Map<String, String> encodedMappingWithDots = new HashMap<>(mappingWithDots.size() * 2);
+        for (Map.Entry<String, String> mapping : mappingWithDots.entrySet()) {
+            encodedMappingWithDots.put(encode(mapping.getKey()), encode(mapping.getValue()));
+        }
+        // package names without '/' char are the same in both forms, replacement in dot form wins
+        final Map<String, String> encodedMapping = new HashMap<>(encodedMappingWithSeps);
+        encodedMapping.putAll(encodedMappingWithDots);
+        textPatterns[TextResource.SEPS] = new PackageNameTrie(encodedMappingWithSeps);
+        textPatterns[TextResource.DOTS] = new PackageNameTrie(encodedMappingWithDots);
+        textPatterns[TextResource.SEPS | TextResource.DOTS] = new PackageNameTrie(encodedMapping);
+    }
+
+    private static String encode(final String packageName) {
+        return new String(packageName.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
     }
 
     /**
      * {@inheritDoc}
      */
     public byte[] transform(final byte[] clazz) {
-        ClassReader classReader = new ClassReader(clazz);
-        final ClassWriter classWriter = new ClassWriter(classReader, 0);
-
-        classReader.accept(new ClassVisitor(useASM7 ? Opcodes.ASM7 : Opcodes.ASM6, classWriter) {
-
-            @Override
-            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
-                final String descOrig = descriptor;
-                descriptor = replaceJavaXwithJakarta(descriptor);
-                if (!descOrig.equals(descriptor)) {  // if we are changing
-                    // mark the class as transformed
-                    setClassTransformed(true);
-                }
-                AnnotationVisitor av =  super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
-                return new MyAnnotationVisitor(av);
-            }
-
-            @Override
-            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                final String descOrig = descriptor;
-                descriptor = replaceJavaXwithJakarta(descriptor);
-                if (!descOrig.equals(descriptor)) {  // if we are changing
-                    // mark the class as transformed
-                    setClassTransformed(true);
-                }
-                AnnotationVisitor av = super.visitAnnotation(descriptor, visible);
-                return new MyAnnotationVisitor(av);
-            }
-
-            @Override
-            public void visitAttribute(Attribute attribute) {
-                System.out.println("fieldvisitor:getAttributeCount type = " + attribute);
-                super.visitAttribute(attribute);
-            }
-
-            // clear transformed state at start of each class visit
-            @Override
-            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-                if (changeClassName != null) {
-                    name = changeClassName;
-                    changeClassName = null;
-                }
-                
-                if (superName != null) {
-                    String superNameOrig = superName;
-                    superName = replaceJavaXwithJakarta(superName);
-                    if (!superNameOrig.equals(superName)) {
-                        // mark the class as transformed
-                        setClassTransformed(true);
-                    }
-                }
-
-                for(int index = 0; index < interfaces.length; index++) {
-                    String orig = interfaces[index];
-                    interfaces[index] = replaceJavaXwithJakarta(interfaces[index]);
-                    if (!orig.equals(interfaces[index])) {
-                        // mark the class as transformed
-                        setClassTransformed(true);
-                    }
-                }
-                
-                super.visit(version, access, name, signature, superName, interfaces);
-            }
-
-            // check if class has already been transformed
-            @Override
-            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
-
-                final String descOrig = desc;
-                desc = replaceJavaXwithJakarta(desc);
-                if (!descOrig.equals(desc)) {  // if we are changing
-                    // mark the class as transformed
-                    setClassTransformed(true);
-                }
-                FieldVisitor fv = super.visitField(access, name, desc, signature, value);
-                return new FieldVisitor(api, fv) {
-
-                    @Override
-                    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                        final String descOrig = descriptor;
-                        descriptor = replaceJavaXwithJakarta(descriptor);
-                        if (!descOrig.equals(descriptor)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        AnnotationVisitor av = fv.visitAnnotation(descriptor, visible);
-                        return new MyAnnotationVisitor(av);
-                        
-                    }
-
-                    @Override
-                    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
-                        final String descOrig = descriptor;
-                        descriptor = replaceJavaXwithJakarta(descriptor);
-                        if (!descOrig.equals(descriptor)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        AnnotationVisitor av = fv.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
-                        return new MyAnnotationVisitor(av);
-                        
-                    }
-                };
-            }
-
-
-            // mark class as transformed (only if class transformations were made)
-            @Override
-            public void visitEnd() {
-                super.visitEnd();
-            }
-
-            @Override
-            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-
-                final String descOrig2 = desc;
-
-                desc = replaceJavaXwithJakarta(desc);
-                if (!descOrig2.equals(desc)) {  // if we are changing
-                    // mark the class as transformed
-                    setClassTransformed(true);
-                }
-                return new MethodVisitor(Opcodes.ASM6,
-                        super.visitMethod(access, name, desc, signature, exceptions)) {
-
-                    @Override
-                    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
-                        final String descOrig = descriptor;
-                        descriptor = replaceJavaXwithJakarta(descriptor);
-                        if (!descOrig.equals(descriptor)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        AnnotationVisitor av = mv.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
-                        return new MyAnnotationVisitor(av);
-                    }
-                    
-                    @Override
-                    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                        final String descOrig = descriptor;
-
-                        descriptor = replaceJavaXwithJakarta(descriptor);
-                        if (!descOrig.equals(descriptor)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        
-                        AnnotationVisitor av = mv.visitAnnotation(descriptor, visible);
-                        return new MyAnnotationVisitor(av);
-                    }
-                    
-                    @Override
-                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-
-                        final String descOrig = desc;
-                        desc = replaceJavaXwithJakarta(desc);
-                        final String ownerOrig = owner;
-                        owner = replaceJavaXwithJakarta(owner);
-                        if (!descOrig.equals(desc) | !ownerOrig.equals(owner)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        mv.visitMethodInsn(opcode, owner, name, desc, itf);
-                    }
-
-                    @Override
-                    public void visitInvokeDynamicInsn(String name, String desc, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
-                        final String descOrig = desc;
-                        desc = replaceJavaXwithJakarta(desc);
-                        final String ownerOrig = bootstrapMethodHandle.getOwner();
-                        String bootstrapMethodHandleOwner = replaceJavaXwithJakarta(ownerOrig);
-                        final String bootstrapMethodHandleDescOrig = bootstrapMethodHandle.getDesc(); 
-                        String bootstrapMethodHandleDesc = replaceJavaXwithJakarta(bootstrapMethodHandleDescOrig);
-                        if (!descOrig.equals(desc)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        if (!ownerOrig.equals(bootstrapMethodHandleOwner) ||
-                        !bootstrapMethodHandleDescOrig.equals(bootstrapMethodHandleDesc)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                            bootstrapMethodHandle = new Handle(
-                                    bootstrapMethodHandle.getTag(),
-                                    bootstrapMethodHandleOwner,
-                                    bootstrapMethodHandle.getName(),                                     
-                                    bootstrapMethodHandleDesc,
-                                    bootstrapMethodHandle.isInterface());
-                        }
-                        /** bootstrapMethodArguments can be Integer, Float,Long, Double,String, Type, Handle, ConstantDynamic value. 
-                         * ConstantDynamic can modify content of array at runtime.
-                         * 
-                         * TODO: https://github.com/wildfly-extras/batavia/issues/28 support for handling bootstrapMethodArguments that are ARRAY, OBJECT, METHOD  
-                         */
-                        Object[] copyBootstrapMethodArguments = null;
-                        for(int looper = 0; looper < bootstrapMethodArguments.length; looper++) {
-                            Object argument = bootstrapMethodArguments[looper];
-                            if (argument instanceof Type && ((
-                                    ((Type)argument)).getSort() == Type.ARRAY ||
-                                    ((Type)argument).getSort() == Type.OBJECT ||
-                                    ((Type)argument).getSort() == Type.METHOD)) {
-                                Type type = (Type) argument;
-                                String oldDesc = type.getDescriptor();
-                                String updatedDesc = replaceJavaXwithJakarta(type.getDescriptor());
-                                if (type.getSort() == Type.ARRAY) {
-                                    //    replace descriptor (if necessary)
-                                    //    inspect and potentially replace all elements of this array type (see Type.getElementType())
-                                    //    inspect and potentially replace its internal name // see Type.getInternalName()
-                                    Type elementType = type.getElementType();
-                                    String internalName = type.getInternalName();
-                                    System.out.println("TODO: https://github.com/wildfly-extras/batavia/issues/28 for Type.ARRAY " + internalName + " elementType = " + elementType);
-                                } else if(type.getSort() == Type.METHOD) {
-                                    // replace descriptor (if necessary)
-                                    // inspect and potentially replace all arguments of this method type (see Type.getArgumentTypes())
-                                    // inspect and potentially replace its return type (see Type.getReturnType())
-                                    // ElytronDefinition.class - type.getSort() == Type.METHOD type.getArgumentTypes() = [Lorg.objectweb.asm.Type;@72ea2f77
-                                    System.out.println("TODO: https://github.com/wildfly-extras/batavia/issues/28 for Type.METHOD " + type.getArgumentTypes() );
-                                    for (Type argTypes : type.getArgumentTypes()) {
-                                        System.out.println("argumentTypes: " +
-                                                " argTypes.getInternalName() = " + argTypes.getInternalName() +
-                                                " argTypes.getDescriptor() = " + argTypes.getDescriptor());
-                                        System.out.println("argTypes to string = " + argTypes.toString());
-                                    }
-                                } else { // (type.getSort() == Type.OBJECT)
-                                    // replace descriptor (if necessary)
-                                    // inspect and potentially replace its internal name // see Type.getInternalName()
-                                    // inspect and potentially replace its name // see Type.getClassName()
-                                    System.out.println("TODO: https://github.com/wildfly-extras/batavia/issues/28 for Type.OBJECT " + type.getInternalName() 
-                                            + " type.getClassName() = " + type.getClassName());
-                                }
-                                
-                                if (!oldDesc.equals(updatedDesc)) {
-                                    setClassTransformed(true);
-                                    if (copyBootstrapMethodArguments == null) {
-                                        copyBootstrapMethodArguments = cloneBootstrapMethodArguments(bootstrapMethodArguments);
-                                    }
-                                    copyBootstrapMethodArguments[looper] = Type.getMethodType(updatedDesc);
-                                }
-                                
-                            } else if (argument instanceof Handle) {  // reference to a field or method
-                                Handle handle = (Handle)argument;
-                                String origDesc = handle.getDesc();
-                                String updatedDesc = replaceJavaXwithJakarta(handle.getDesc());
-                                String origOwner = handle.getOwner();
-                                String updatedOwner = replaceJavaXwithJakarta(handle.getOwner()); 
-                                if (!origDesc.equals(updatedDesc) || !origOwner.equals(updatedOwner)) {  // if we are changing
-                                    // mark the class as transformed
-                                    setClassTransformed(true);
-                                    handle = new Handle(
-                                            handle.getTag(),
-                                            updatedOwner,
-                                            handle.getName(),
-                                            updatedDesc,
-                                            handle.isInterface());
-                                    if (copyBootstrapMethodArguments == null) {
-                                        copyBootstrapMethodArguments = cloneBootstrapMethodArguments(bootstrapMethodArguments);
-                                    }
-                                    copyBootstrapMethodArguments[looper] = handle;
-                                }
-                                
-                            } else if( argument instanceof ConstantDynamic) {
-                                // TODO: runtime handling of ConstantDynamic)
-                                ConstantDynamic constantDynamic = (ConstantDynamic)argument;
-                                throw new IllegalStateException("ConstantDynamic is not handled " +constantDynamic.toString());
-                            }
-                        }
-                        if (copyBootstrapMethodArguments != null) {
-                            bootstrapMethodArguments = copyBootstrapMethodArguments;
-                        }
-                        super.visitInvokeDynamicInsn(name, desc, bootstrapMethodHandle, bootstrapMethodArguments);
-                    }
-
-                    private Object[] cloneBootstrapMethodArguments(Object[] bootstrapMethodArguments) {
-                        // copy all current values after allocation
-                        Object [] copyBootstrapMethodArguments = new Object[bootstrapMethodArguments.length];
-                        for (int copyIdx = 0; copyIdx < bootstrapMethodArguments.length;copyIdx++) {
-                            copyBootstrapMethodArguments[copyIdx] = bootstrapMethodArguments[copyIdx];
-                        }
-                        return copyBootstrapMethodArguments;
-                    }
-
-                    @Override
-                    public void visitLdcInsn(final Object value) {
-                        if (value instanceof Type) {
-                            Type type = (Type) value;
-                            String descOrig = type.getDescriptor();
-                            String desc = replaceJavaXwithJakarta(descOrig);
-                            if (!descOrig.equals(desc)) { // if we are changing
-                                // mark the class as transformed
-                                setClassTransformed(true);
-                                mv.visitLdcInsn(Type.getType(desc));
-                                return;
-                            }
-                        }
-
-                        if (value instanceof String) {
-                            final String typeOrig = (String) value;
-                            String replacement = replaceJavaXwithJakarta((String) value);
-                            if (!typeOrig.equals(replacement)) {  // if we are changing
-                                // mark the class as transformed
-                                setClassTransformed(true);
-                                mv.visitLdcInsn(replacement);
-                                return;
-                            }
-                        }
-                        mv.visitLdcInsn(value);
-                    }
-
-                    @Override
-                    public void visitLocalVariable(
-                            final String name,
-                            final String descriptor,
-                            final String signature,
-                            final Label start,
-                            final Label end,
-                            final int index) {
-
-                        final String descOrig = descriptor;
-                        final String replacement = replaceJavaXwithJakarta(descriptor);
-                        if (!descOrig.equals(replacement)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        mv.visitLocalVariable(name, replacement, signature, start, end, index);
-                    }
-
-                    @Override
-                    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
-                        final String descOrig = desc;
-                        desc = replaceJavaXwithJakarta(desc);
-                        final String ownerOrig = owner;
-                        owner = replaceJavaXwithJakarta(owner);
-                        if (!descOrig.equals(desc) | !ownerOrig.equals(owner)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        mv.visitFieldInsn(opcode, owner, name, desc);
-                    }
-
-                    @Override
-                    public void visitTypeInsn(final int opcode, final String type) {
-                        final String typeOrig = type;
-
-                        final String replacement = replaceJavaXwithJakarta(type);
-                        if (!typeOrig.equals(replacement)) {  // if we are changing
-                            // mark the class as transformed
-                            setClassTransformed(true);
-                        }
-                        mv.visitTypeInsn(opcode, replacement);
-                    }
+        return transform(clazz, 0, clazz.length, new ClassRemapping());
+    }
 
-                };
-            }
-        }, 0);
-        if (!transformationsMade()) {
+    private byte[] transform(final byte[] clazz, final int offset, final int length, final ClassRemapping remapping) {
+        ClassReader classReader = new ClassReader(clazz, offset, length);
+        if (!remapping.classTransformed && !constantPoolContainsPattern(classReader, clazz)) {
+            // no mapped package referenced, skip visiting the class
+            return null;
+        }
+        final ClassWriter classWriter = new ClassWriter(classReader, 0);
+        classReader.accept(new ClassRemapper(classWriter, remapping), 0);
+        if (!remapping.classTransformed) {
             // no change was made, indicate so by returning null
             return null;
         }
@@ -431,150 +131,177 @@ final class TransformerImpl implements Transformer {
         return classWriter.toByteArray();
     }
 
-    private String replaceJavaXwithJakarta(String desc) {
-        StringBuilder stringBuilder = new StringBuilder(desc);
-        for (Map.Entry<String, String> possibleReplacement: mappingWithSeps.entrySet()) {
-            String key = possibleReplacement.getKey();
-            String value = possibleReplacement.getValue();
-            int pos = stringBuilder.indexOf(key, 0);
-            while(pos > -1) {
-                int length = pos  + key.length();
-                int next = pos + value.length();
-                stringBuilder.replace(pos, length, value);
-                pos = stringBuilder.indexOf(key, next);
-            }
+    /**
+     * {@inheritDoc}
+     * Remapping cache hits and misses are reported under <code>remapping.cache.hits</code>
+     * and <code>remapping.cache.misses</code> names.
+     */
+    @Override
+    public Map<String, Long> getStatistics() {
+        final Map<String, Long> retVal = new LinkedHashMap<>();
+        retVal.put(REMAPPING_CACHE_HITS, remappingCache.getHits());
+        retVal.put(REMAPPING_CACHE_MISSES, remappingCache.getMisses());
+        return Collections.unmodifiableMap(retVal);
+    }
+
+    @Override
+    public Resource transform(final Resource r) {
+        final String oldResourceName = r.getName();
+        if (oldResourceName.endsWith(CLASS_SUFFIX)) {
+            final String newResourceName = packageNamesWithSeps.replace(oldResourceName);
+            final ClassRemapping remapping = new ClassRemapping(); // new transformation state for each class
+            // any file rename counts as a transformation
+            remapping.classTransformed = newResourceName != oldResourceName;
+            final ByteBuffer clazz = r.getBuffer();
+            final byte[] newClazz = clazz.hasArray()
+                    ? transform(clazz.array(), clazz.arrayOffset() + clazz.position(), clazz.remaining(), remapping)
+                    : transform(r.getData(), 0, clazz.remaining(), remapping); // ClassReader needs byte array
+            return newClazz != null ? new Resource(newResourceName, newClazz) : null;
         }
-        for (Map.Entry<String, String> possibleReplacement: mappingWithDots.entrySet()) {
-            String key = possibleReplacement.getKey();
-            String value = possibleReplacement.getValue();
-            int pos = stringBuilder.indexOf(key, 0);
-            while(pos > -1) {
-                int length = pos  + key.length();
-                int next = pos + value.length();
-                stringBuilder.replace(pos, length, value);
-                pos = stringBuilder.indexOf(key, next);
-            }
+        final TextResource textResource = TextResource.get(textResources, oldResourceName);
+        final String newResourceName = getPackageNames(textResource).replace(oldResourceName);
+        if (textResource != null) {
+            final ByteBuffer text = r.getBuffer();
+            final ByteBuffer[] newText = textResource.isManifest() ? manifestTransformer.transform(text, text.position(), text.limit())
+                    : textFile(text, text.position(), text.limit(), textResource.getForms());
+            if (newText != null) return new Resource(newResourceName, newText);
         }
-        return stringBuilder.toString();
+        if (newResourceName != oldResourceName) {
+            return new Resource(newResourceName, r.getBuffer()); // renamed only, content is shared
+        }
+        return null; // returning null means nothing was transformed (indicates copy original content)
     }
-    
-    private static int getMajorJavaVersion() {
-        int major = 8;
-        String version = System.getProperty("java.specification.version", null);
-        if (version != null) {
-            Matcher matcher = Pattern.compile("^(?:1\\.)?(\\d+)$").matcher(version);
-            if (matcher.find()) {
-                major = Integer.valueOf(matcher.group(1));
-            }
+
+    @Override
+    public boolean requiresTransformation(final byte[] data, final int off, final int len, final String name) {
+        if (name.endsWith(CLASS_SUFFIX)) {
+            // any file rename counts as a transformation
+            return packageNamesWithSeps.contains(name) || containsPattern(data, off, off + len);
         }
-        return major;
+        final TextResource textResource = TextResource.get(textResources, name);
+        if (getPackageNames(textResource).contains(name)) return true;
+        if (textResource == null) return false;
+        if (textResource.isManifest()) return manifestTransformer.requiresTransformation(ByteBuffer.wrap(data), off, off + len);
+        return textContainsPattern(data, off, off + len, textResource.getForms());
     }
 
-    public void setClassTransformed(boolean classTransformed) {
-        this.classTransformed = classTransformed;
+    @Override
+    public boolean transformsContent(final String name) {
+        return name.endsWith(CLASS_SUFFIX) || TextResource.get(textResources, name) != null;
     }
 
-    public void setAlreadyTransformed(boolean alreadyTransformed) {
-        this.alreadyTransformed = alreadyTransformed;
+    @Override
+    public List<TextResource> getTextResources() {
+        return textResources;
     }
 
-    public boolean transformationsMade() {
-        return !alreadyTransformed && classTransformed;
+    private PackageNameTrie getPackageNames(final TextResource textResource) {
+        return textResource != null && textResource.isDottedName() ? packageNamesWithDots : packageNamesWithSeps;
     }
 
-    public void clearTransformationState() {
-        alreadyTransformed = classTransformed = false;
+    /**
+     * Returns <code>true</code> if class bytes contain some mapped package. Whole class is scanned, thus
+     * the answer is conservative - class is never reported as unchanged if transformation would modify it.
+     *
+     * @param clazz buffer containing class bytes
+     * @param offset the index of the first class byte in the buffer
+     * @param limit first index not belonging to the class
+     * @return <code>true</code> if some mapped package was found, <code>false</code> otherwise
+     */
+    private boolean containsPattern(final byte[] clazz, final int offset, final int limit) {
+        return patterns.contains(clazz, offset, limit);
     }
 
-    @Override
-    public Resource transform(final Resource r) {
-        
-        
-        String oldResourceName = r.getName();
-        String newResourceName = replacePackageName(oldResourceName, false);
-        if (oldResourceName.endsWith(CLASS_SUFFIX)) {
-            clearTransformationState(); // clear transformation state for each class, prior to class transformation
-                    
-            if (!newResourceName.equals(oldResourceName)) {  // any file rename counts as a transformation 
-                setClassTransformed(true);
-                setNewClassName(newResourceName);
-            }
-                    
-            final byte[] newClazz = transform(r.getData());
-            if (newClazz != null) return new Resource(newResourceName, newClazz);
-        } else if (oldResourceName.endsWith(XML_SUFFIX)) {
-            return new Resource(newResourceName, xmlFile(r.getData()));
-        } else if (oldResourceName.startsWith(META_INF_SERVICES_PREFIX)) {
-            newResourceName = replacePackageName(oldResourceName, true);
-            if (!newResourceName.equals(oldResourceName)) {
-                return new Resource(newResourceName, r.getData());
-            }
-        } else if (!newResourceName.equals(oldResourceName)) {
-            return new Resource(newResourceName, r.getData());
+    /**
+     * Returns <code>true</code> if some <code>CONSTANT_Utf8_info</code> structure of the class contains mapped package.
+     *
+     * @param classReader class reader
+     * @param clazz class bytes
+     * @return <code>true</code> if some mapped package was found, <code>false</code> otherwise
+     */
+    private boolean constantPoolContainsPattern(final ClassReader classReader, final byte[] clazz) {
+        int offset;
+        for (int i = 1; i < classReader.getItemCount(); i++) {
+            offset = classReader.getItem(i); // points after item tag, zero for second slot of long and double items
+            if (offset == 0 || clazz[offset - 1] != CONSTANT_UTF8_TAG) continue;
+            if (containsPattern(clazz, offset + 2, offset + 2 + classReader.readUnsignedShort(offset))) return true;
         }
-        return null; // returning null means nothing was transformed (indicates copy original content)
+        return false;
     }
 
-    private void setNewClassName(String newClassName) {
-        if (newClassName.endsWith(CLASS_SUFFIX)) {
-            newClassName = newClassName.substring(0,newClassName.length() - CLASS_SUFFIX_LENGTH);
-        }
-        changeClassName = newClassName;
+    private boolean textContainsPattern(final byte[] text, final int offset, final int limit, final int forms) {
+        return isAsciiCompatible(ByteBuffer.wrap(text), offset, limit) && textPatterns[forms].contains(text, offset, limit);
     }
 
-    private String replacePackageName(final String resourceName, final boolean dotFormat) {
-        int startIndex;
-        for (final Map.Entry<String, String> mapping : (dotFormat ? mappingWithDots : mappingWithSeps).entrySet()) {
-            startIndex = resourceName.indexOf(mapping.getKey());
-            if (startIndex != -1) {
-                return resourceName.substring(0, startIndex) + mapping.getValue() + resourceName.substring(startIndex + mapping.getKey().length());
-            }
-        }
-        return resourceName;
+    /**
+     * Transforms text resource. Raw bytes are scanned for packages mapping in given forms,
+     * text is neither decoded nor copied. Only encodings compatible with ASCII (e.g. UTF-8 or ISO-8859-1)
+     * are supported, other text resources are left untouched.
+     *
+     * @param text buffer containing text resource bytes
+     * @param offset the index of the first text resource byte in the buffer
+     * @param limit first index not belonging to the text resource
+     * @param forms packages mapping forms to rewrite text with
+     * @return transformed text resource segments or <code>null</code> if text resource was not modified
+     */
+    private ByteBuffer[] textFile(final ByteBuffer text, final int offset, final int limit, final int forms) {
+        return isAsciiCompatible(text, offset, limit) ? textPatterns[forms].replaceAll(text, offset, limit) : null;
     }
 
-    private static byte[] xmlFile(final byte[] data) {
-        try {
-            return new String(data, "UTF-8").replace("javax.", "jakarta.").getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            return null; // should never happen
-        }
+    /**
+     * Returns <code>false</code> if text resource starts with UTF-16 or UTF-32 byte order mark
+     * or with a character encoded using zero byte (e.g. XML declaration in UTF-16 or UTF-32 without byte order mark).
+     *
+     * @param text buffer containing text resource bytes
+     * @param offset the index of the first text resource byte in the buffer
+     * @param limit first index not belonging to the text resource
+     * @return <code>true</code> if text resource encoding is compatible with ASCII, <code>false</code> otherwise
+     */
+    private static boolean isAsciiCompatible(final ByteBuffer text, final int offset, final int limit) {
+        if (limit - offset < 2) return true;
+        final int b0 = text.get(offset) & 0xFF;
+        final int b1 = text.get(offset + 1) & 0xFF;
+        if (b0 == 0 || b1 == 0) return false;
+        return !(b0 == 0xFE && b1 == 0xFF) && !(b0 == 0xFF && b1 == 0xFE);
     }
 
-    private class MyAnnotationVisitor extends AnnotationVisitor {
-        public MyAnnotationVisitor(AnnotationVisitor av) {
-            super(useASM7 ? Opcodes.ASM7 : Opcodes.ASM6, av);
+    /**
+     * Remapper of single class, it records whether some mapped package was replaced. Every class transformation
+     * uses its own remapper thus transformer instance can be shared by multiple threads.
+     * Rewritten values are shared by all classes via {@link RemappingCache}.
+     */
+    private final class ClassRemapping extends Remapper {
+        private boolean classTransformed;
+
+        @Override
+        public String map(final String internalName) {
+            return remap(internalName);
         }
 
         @Override
-        public void visit(String name, Object value) {
-            av.visit(name, value);
+        public String mapDesc(final String descriptor) {
+            return remap(descriptor);
         }
 
         @Override
-        public void visitEnum(String name, String descriptor, String value) {
-            if (descriptor != null) {
-                descriptor = replaceJavaXwithJakarta(descriptor);
-            }
-            av.visitEnum(name, descriptor, value);
+        public String mapMethodDesc(final String methodDescriptor) {
+            return remap(methodDescriptor);
         }
 
         @Override
-        public AnnotationVisitor visitAnnotation(String name, String descriptor) {
-            if (descriptor != null) {
-                descriptor = replaceJavaXwithJakarta(descriptor);
-            }
-            AnnotationVisitor av2 = av.visitAnnotation(name, descriptor);
-            return new MyAnnotationVisitor(av2);
-            
-            
+        public String mapSignature(final String signature, final boolean typeSignature) {
+            return signature != null ? remap(signature) : null;
         }
 
         @Override
-        public AnnotationVisitor visitArray(String name) {
-            AnnotationVisitor av2 = av.visitArray(name);
-            return new MyAnnotationVisitor(av2);
+        public Object mapValue(final Object value) {
+            return value instanceof String ? remap((String) value) : super.mapValue(value);
         }
 
+        private String remap(final String value) {
+            final String retVal = remappingCache.get(value);
+            if (!classTransformed && !retVal.equals(value)) classTransformed = true;
+            return retVal;
+        }
     }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.asm;
+
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.GETFIELD;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.wildfly.transformer.Transformer;
+import org.wildfly.transformer.Transformer.Resource;
+
+/**
+ * Transforms classes by single {@link Transformer} instance from multiple threads. Transformation results
+ * must be identical to single threaded transformation results. Throughput scaling is measured by
+ * <code>ScalingBenchmark</code> of the benchmarks module.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ConcurrentTransformationTest extends TestCase {
+
+    private static final int CLASSES_COUNT = 2000;
+    private static final int MAX_THREADS = 4;
+    private static final String[] MAPPED_TYPES = {
+        "javax/servlet/http/HttpServletRequest", "javax/persistence/EntityManager",
+        "javax/ejb/SessionContext", "javax/transaction/UserTransaction",
+    };
+    private static final String[] UNMAPPED_TYPES = {
+        "java/lang/String", "java/util/List", "org/example/Unmapped",
+    };
+
+    private Transformer t;
+    private Resource[] classes;
+    private Resource[] expected;
+
+    @Override
+    protected void setUp() throws IOException {
+        t = new TransformerFactoryImpl().newTransformer().build();
+        classes = newClasses();
+        expected = new Resource[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            expected[i] = t.transform(classes[i]);
+        }
+    }
+
+    public void testConcurrentTransformationResults() throws Exception {
+        final int threads = MAX_THREADS;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Resource[]>> results = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(newTask(shuffledIndexes(i))));
+            }
+            for (Future<Resource[]> result : results) {
+                assertResults(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testRemappingCacheStatistics() {
+        final Map<String, Long> before = t.getStatistics();
+        for (Resource clazz : classes) {
+            t.transform(clazz);
+        }
+        final Map<String, Long> after = t.getStatistics();
+        // every class was already transformed in setUp, remapped values are cached
+        assertTrue(after.get("remapping.cache.hits") > before.get("remapping.cache.hits"));
+        assertEquals(before.get("remapping.cache.misses"), after.get("remapping.cache.misses"));
+    }
+
+    private Callable<Resource[]> newTask(final int[] indexes) {
+        return new Callable<Resource[]>() {
+            @Override
+            public Resource[] call() {
+                final Resource[] retVal = new Resource[classes.length];
+                for (int index : indexes) {
+                    retVal[index] = t.transform(classes[index]);
+                }
+                return retVal;
+            }
+        };
+    }
+
+    private void assertResults(final Resource[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] == null) {
+                assertNull(classes[i].getName(), actual[i]);
+            } else {
+                assertNotNull(classes[i].getName(), actual[i]);
+                assertEquals(expected[i].getName(), actual[i].getName());
+                assertTrue(classes[i].getName(), Arrays.equals(expected[i].getData(), actual[i].getData()));
+            }
+        }
+    }
+
+    private int[] shuffledIndexes(final int seed) {
+        final List<Integer> indexes = new ArrayList<>(classes.length);
+        for (int i = 0; i < classes.length; i++) {
+            indexes.add(i);
+        }
+        Collections.shuffle(indexes, new Random(seed));
+        final int[] retVal = new int[indexes.size()];
+        for (int i = 0; i < retVal.length; i++) {
+            retVal[i] = indexes.get(i);
+        }
+        return retVal;
+    }
+
+    private static Resource[] newClasses() {
+        final Random random = new Random(42);
+        final Resource[] retVal = new Resource[CLASSES_COUNT];
+        for (int i = 0; i < retVal.length; i++) {
+            // every third class lives in mapped package and is renamed
+            final String className = (i % 3 == 0 ? "javax/servlet/Generated" : "org/example/Generated") + i;
+            retVal[i] = new Resource(className + ".class", newClass(className, random));
+        }
+        return retVal;
+    }
+
+    private static byte[] newClass(final String className, final Random random) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, className, null, "java/lang/Object", null);
+        for (int i = 0; i < 20; i++) {
+            final String[] types = random.nextBoolean() ? MAPPED_TYPES : UNMAPPED_TYPES;
+            final String descriptor = "L" + types[random.nextInt(types.length)] + ";";
+            cw.visitField(ACC_PRIVATE, "field" + i, descriptor, null, null).visitEnd();
+            final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "getField" + i, "()" + descriptor, null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, className, "field" + i, descriptor);
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+}
@@ -15,8 +15,11 @@
  */
 package org.wildfly.transformer.nodeps;
 
+import java.nio.ByteBuffer;
+
 /**
  * Utility class for working with class file content.
+ * Class file content is read from heap or direct byte buffers using absolute indices, it is never copied.
  * Compatible with Java VM specification version 13 and below.
  *
  * <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
@@ -114,8 +117,8 @@ final class ClassFileUtils {
      * @param offset the index to start reading from
      * @return read value
      */
-    static int readUnsignedShort(final byte[] clazz, final int offset) {
-        return ((clazz[offset] & 0xFF) << 8) | (clazz[offset + 1] & 0xFF);
+    static int readUnsignedShort(final ByteBuffer clazz, final int offset) {
+        return ((clazz.get(offset) & 0xFF) << 8) | (clazz.get(offset + 1) & 0xFF);
     }
 
     /**
@@ -136,40 +139,51 @@ final class ClassFileUtils {
      * One special field in this array is value at position <code>zero</code>.
      * This value holds pointer to the end of the class constant pool.
      *
-     * @param clazz class to create array of constant pool item pointers for
+     * @param clazz buffer containing class to create array of constant pool item pointers for
+     * @param offset the index of the first class byte in the buffer
      * @return array of constant pool item pointers
      */
-    static int[] getConstantPool(final byte[] clazz) {
-        final int constantPoolSize = readUnsignedShort(clazz, POOL_SIZE_INDEX);
+    static int[] getConstantPool(final ByteBuffer clazz, final int offset) {
+        final int constantPoolSize = readUnsignedShort(clazz, offset + POOL_SIZE_INDEX);
         final int[] retVal = new int[constantPoolSize];
-        int position = POOL_CONTENT_INDEX;
+        int position = offset + POOL_CONTENT_INDEX;
         byte tag;
-        int utf8Length;
 
         for (int i = 1; i < constantPoolSize; i++) {
             retVal[i] = position;
-            tag = clazz[position++];
-            if (tag == UTF8) {
-                utf8Length = readUnsignedShort(clazz, position);
-                position += 2 + utf8Length;
-            } else if (tag == CLASS || tag == STRING || tag == METHOD_TYPE || tag == MODULE || tag == PACKAGE) {
-                position += 2;
-            } else if (tag == LONG || tag == DOUBLE) {
-                position += 8;
-                i++;
-            } else if (tag == INTEGER || tag == FLOAT || tag == FIELD_REF || tag == METHOD_REF ||
-                       tag == INTERFACE_METHOD_REF || tag == NAME_AND_TYPE || tag == DYNAMIC || tag == INVOKE_DYNAMIC) {
-                position += 4;
-            } else if (tag == METHOD_HANDLE) {
-                position += 3;
-            } else {
-                throw new UnsupportedClassVersionError();
-            }
+            tag = clazz.get(position);
+            position = nextConstantPoolItem(clazz, position);
+            if (tag == LONG || tag == DOUBLE) i++;
         }
         retVal[0] = position;
         return retVal;
     }
 
+    /**
+     * Returns position of the constant pool item following the item on given position.
+     *
+     * @param clazz class bytes
+     * @param position position of constant pool item tag
+     * @return position of the next constant pool item
+     */
+    static int nextConstantPoolItem(final ByteBuffer clazz, final int position) {
+        final byte tag = clazz.get(position);
+        if (tag == UTF8) {
+            return position + 3 + readUnsignedShort(clazz, position + 1);
+        } else if (tag == CLASS || tag == STRING || tag == METHOD_TYPE || tag == MODULE || tag == PACKAGE) {
+            return position + 3;
+        } else if (tag == LONG || tag == DOUBLE) {
+            return position + 9;
+        } else if (tag == INTEGER || tag == FLOAT || tag == FIELD_REF || tag == METHOD_REF ||
+                   tag == INTERFACE_METHOD_REF || tag == NAME_AND_TYPE || tag == DYNAMIC || tag == INVOKE_DYNAMIC) {
+            return position + 5;
+        } else if (tag == METHOD_HANDLE) {
+            return position + 4;
+        } else {
+            throw new UnsupportedClassVersionError();
+        }
+    }
+
     /**
      * Decodes modified UTF-8 to string.
      *
@@ -178,19 +192,19 @@ final class ClassFileUtils {
      * @param limit the limit of modified UTF-8
      * @return decoded string
      */
-    static String utf8ToString(final byte[] clazz, final int offset, final int limit) {
+    static String utf8ToString(final ByteBuffer clazz, final int offset, final int limit) {
         final char[] charBuffer = new char[limit - offset];
         int charsCount = 0;
         int index = offset;
         int currentByte;
         while (index < limit) {
-            currentByte = clazz[index++];
+            currentByte = clazz.get(index++);
             if ((currentByte & 0x80) == 0) {
                 charBuffer[charsCount++] = (char) (currentByte & 0x7F);
             } else if ((currentByte & 0xE0) == 0xC0) {
-                charBuffer[charsCount++] = (char) (((currentByte & 0x1F) << 6) + (clazz[index++] & 0x3F));
+                charBuffer[charsCount++] = (char) (((currentByte & 0x1F) << 6) + (clazz.get(index++) & 0x3F));
             } else {
-                charBuffer[charsCount++] = (char) (((currentByte & 0xF) << 12) + ((clazz[index++] & 0x3F) << 6) + (clazz[index++] & 0x3F));
+                charBuffer[charsCount++] = (char) (((currentByte & 0xF) << 12) + ((clazz.get(index++) & 0x3F) << 6) + (clazz.get(index++) & 0x3F));
             }
         }
         return new String(charBuffer, 0, charsCount);
@@ -224,24 +238,6 @@ final class ClassFileUtils {
         return retVal;
     }
 
-    /**
-     * Counts how many <code>CONSTANT_Utf8_info</code> structures are present in the class constant pool.
-     *
-     * @param clazz class bytes
-     * @param constantPool pointers to class constant pool
-     * @return <code>CONSTANT_Utf8_info</code> structures count in class constant pool
-     */
-    static int countUtf8Items(final byte[] clazz, final int[] constantPool) {
-        int retVal = 0;
-
-        for (int i = 1; i < constantPool.length; i++) {
-            if (constantPool[i] == 0) continue;
-            if (UTF8 == clazz[constantPool[i]]) retVal++;
-        }
-
-        return retVal;
-    }
-
     /**
      * Counts size for modified UTF-8 encoding.
      *
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.nodeps;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Byte level multi-pattern matcher (Aho-Corasick automaton compiled to deterministic transition table).
+ * All patterns are matched in a single linear pass regardless of patterns count.
+ * Automatons too big for deterministic transition table (tens of thousands of patterns) keep sparse trie
+ * with failure links instead, matching stays linear but each transition costs a binary search.
+ * Matcher also provides cheap prefilter (Wu-Manber shift table over byte class bigrams)
+ * allowing to skip input regions where no pattern can start.
+ * No pattern may be a substring of another pattern (identical patterns are allowed), thus at most one pattern
+ * ends at every input index and matches reported in their end index order are ordered by their start index too.
+ * Instances of this class are immutable and thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class MappingMatcher {
+
+    /**
+     * Initial automaton state.
+     */
+    static final int ROOT = 0;
+
+    /**
+     * Maximum prefilter window size (shift values must fit into byte).
+     */
+    private static final int MAX_WINDOW = 0xFF;
+
+    /**
+     * Maximum size of deterministic transition table. Larger automatons keep sparse trie with failure links only.
+     */
+    private static final int MAX_TRANSITIONS = 1 << 22;
+
+    /**
+     * Maps every byte value to its equivalence class. Bytes not present in any pattern belong to class <code>zero</code>.
+     */
+    private final int[] byteClasses = new int[256];
+
+    /**
+     * Count of byte equivalence classes (row length of transition table).
+     */
+    private final int classesCount;
+
+    /**
+     * Deterministic transition table indexed by <code>state * classesCount + byteClass</code>
+     * or <code>null</code> if automaton is too big and sparse trie is used instead.
+     */
+    private final int[] transitions;
+
+    /**
+     * Sparse trie transitions. Edges of state <code>s</code> are stored between indices <code>edgeStarts[s]</code>
+     * (inclusive) and <code>edgeStarts[s + 1]</code> (exclusive) sorted by their (unsigned) labels.
+     * Used only if <code>transitions</code> is <code>null</code>.
+     */
+    private final int[] edgeStarts;
+    private final byte[] edgeLabels;
+    private final int[] edgeTargets;
+
+    /**
+     * Holds for every state the longest proper suffix state. Used only if <code>transitions</code> is <code>null</code>.
+     */
+    private final int[] failures;
+
+    /**
+     * Holds for every state the lowest pattern index ending in that state or <code>zero</code> if there is no such pattern.
+     */
+    private final int[] outputs;
+
+    /**
+     * Holds for every pattern index the next greater index of identical pattern or <code>zero</code> if there is no such pattern.
+     */
+    private final int[] duplicates;
+
+
+    /**
+     * Prefilter window size i.e. minimum pattern length capped to <code>MAX_WINDOW</code>.
+     * Prefilter is disabled if window size is smaller than <code>two</code>.
+     */
+    private final int window;
+
+    /**
+     * Prefilter shift table indexed by <code>firstByteClass * classesCount + secondByteClass</code>.
+     * Holds (unsigned) distance the prefilter window can be safely moved when its last two bytes form given bigram.
+     */
+    private final byte[] shifts;
+
+    /**
+     * Constructor.
+     *
+     * @param patterns patterns to search for. Pattern on index <code>zero</code> is undefined. Patterns are defined from index <code>one</code>.
+     * @throws IllegalArgumentException if some pattern is a substring of another pattern
+     */
+    MappingMatcher(final byte[][] patterns) {
+        // compute byte equivalence classes
+        int classesCount = 1;
+        final int[] classBytes = new int[256];
+        for (int i = 1; i < patterns.length; i++) {
+            for (byte b : patterns[i]) {
+                if (byteClasses[b & 0xFF] == 0) {
+                    classBytes[classesCount] = b & 0xFF;
+                    byteClasses[b & 0xFF] = classesCount++;
+                }
+            }
+        }
+        this.classesCount = classesCount;
+        // build trie, patterns are inserted in sorted order so the only child that can be shared is the last one created
+        final Integer[] sortedPatterns = new Integer[patterns.length - 1];
+        for (int i = 1; i < patterns.length; i++) {
+            sortedPatterns[i - 1] = i;
+        }
+        Arrays.sort(sortedPatterns, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer i1, final Integer i2) {
+                final int diff = MappingMatcher.compare(patterns[i1], patterns[i2]);
+                return diff != 0 ? diff : i1 - i2;
+            }
+        });
+        int statesCount = 1;
+        for (int i = 0; i < sortedPatterns.length; i++) {
+            statesCount += patterns[sortedPatterns[i]].length - (i > 0 ? commonPrefixLength(patterns[sortedPatterns[i - 1]], patterns[sortedPatterns[i]]) : 0);
+        }
+        final int[] parents = new int[statesCount];
+        final byte[] labels = new byte[statesCount];
+        final int[] lastChildren = new int[statesCount];
+        final int[] outputs = new int[statesCount];
+        final int[] duplicates = new int[patterns.length];
+        int usedStates = 1, state, child;
+        for (int i : sortedPatterns) {
+            state = ROOT;
+            for (byte b : patterns[i]) {
+                child = lastChildren[state];
+                if (child == ROOT || labels[child] != b) {
+                    child = usedStates++;
+                    parents[child] = state;
+                    labels[child] = b;
+                    lastChildren[state] = child;
+                }
+                state = child;
+            }
+            if (outputs[state] == 0) {
+                outputs[state] = i;
+            } else {
+                // identical patterns are sorted by their indices
+                int duplicate = outputs[state];
+                while (duplicates[duplicate] != 0) duplicate = duplicates[duplicate];
+                duplicates[duplicate] = i;
+            }
+        }
+        // convert trie to compressed sparse rows, children were created in their labels order
+        final int[] edgeStarts = new int[usedStates + 1];
+        for (int s = 1; s < usedStates; s++) {
+            edgeStarts[parents[s] + 1]++;
+        }
+        for (int s = 0; s < usedStates; s++) {
+            edgeStarts[s + 1] += edgeStarts[s];
+        }
+        final byte[] edgeLabels = new byte[usedStates];
+        final int[] edgeTargets = new int[usedStates];
+        final int[] edgeCounts = new int[usedStates];
+        int index;
+        for (int s = 1; s < usedStates; s++) {
+            index = edgeStarts[parents[s]] + edgeCounts[parents[s]]++;
+            edgeLabels[index] = labels[s];
+            edgeTargets[index] = s;
+        }
+        this.edgeStarts = edgeStarts;
+        this.edgeLabels = edgeLabels;
+        this.edgeTargets = edgeTargets;
+        this.outputs = outputs;
+        this.duplicates = duplicates;
+        // compute failure links (breadth first traversal)
+        final int[] failures = new int[usedStates];
+        final int[] queue = new int[usedStates];
+        int head = 0, tail = 0, failure;
+        queue[tail++] = ROOT;
+        while (head < tail) {
+            state = queue[head++];
+            failure = failures[state];
+            // pattern ending in longest proper suffix state or in inner trie state is a substring of another pattern,
+            // patterns ending deeper on the failure chain were already detected when the suffix state was visited
+            if (state != ROOT && (outputs[failure] != 0 || outputs[state] != 0 && edgeStarts[state] < edgeStarts[state + 1])) {
+                final int substring = outputs[failure] != 0 ? outputs[failure] : outputs[state];
+                throw new IllegalArgumentException("Pattern " + new String(patterns[substring], StandardCharsets.UTF_8) + " is substring of another pattern");
+            }
+            for (int e = edgeStarts[state]; e < edgeStarts[state + 1]; e++) {
+                child = edgeTargets[e];
+                failures[child] = state == ROOT ? ROOT : next(failures, failure, edgeLabels[e]);
+                queue[tail++] = child;
+            }
+        }
+        if ((long) usedStates * classesCount <= MAX_TRANSITIONS) {
+            // small automaton, convert it to deterministic transition table
+            final int[] transitions = new int[usedStates * classesCount];
+            for (int q = 0; q < usedStates; q++) {
+                state = queue[q];
+                for (int c = 1; c < classesCount; c++) {
+                    child = child(state, (byte) classBytes[c]);
+                    transitions[state * classesCount + c] = child != ROOT || state == ROOT ? child : transitions[failures[state] * classesCount + c];
+                }
+            }
+            this.transitions = transitions;
+            this.failures = null;
+        } else {
+            this.transitions = null;
+            this.failures = failures;
+        }
+        // compute prefilter shift table
+        int window = MAX_WINDOW;
+        for (int i = 1; i < patterns.length; i++) {
+            if (window > patterns[i].length) window = patterns[i].length;
+        }
+        this.window = window;
+        if (window < 2) {
+            this.shifts = null;
+            return;
+        }
+        this.shifts = new byte[classesCount * classesCount];
+        Arrays.fill(shifts, (byte) (window - 1));
+        int shift;
+        for (int i = 1; i < patterns.length; i++) {
+            for (int q = 1; q < window; q++) {
+                index = byteClasses[patterns[i][q - 1] & 0xFF] * classesCount + byteClasses[patterns[i][q] & 0xFF];
+                shift = window - 1 - q;
+                if ((shifts[index] & 0xFF) > shift) shifts[index] = (byte) shift;
+            }
+        }
+    }
+
+    /**
+     * Returns the first index within given range where some pattern match might start.
+     * It is guaranteed no pattern match starts before returned index.
+     *
+     * @param data bytes to inspect
+     * @param offset the index of the first byte to inspect
+     * @param limit first index not belonging to inspected range
+     * @return candidate pattern start index or <code>limit</code> if no pattern can be found in given range
+     */
+    int skip(final ByteBuffer data, final int offset, final int limit) {
+        if (shifts == null) return offset;
+        int windowEnd = offset + window - 1;
+        int shift;
+        while (windowEnd < limit) {
+            shift = shifts[byteClasses[data.get(windowEnd - 1) & 0xFF] * classesCount + byteClasses[data.get(windowEnd) & 0xFF]] & 0xFF;
+            if (shift == 0) return windowEnd - window + 1;
+            windowEnd += shift;
+        }
+        return limit;
+    }
+
+    /**
+     * Returns <code>true</code> if some pattern occurs within given range.
+     *
+     * @param data bytes to inspect
+     * @param offset the index of the first byte to inspect
+     * @param limit first index not belonging to inspected range
+     * @return <code>true</code> if some pattern was found, <code>false</code> otherwise
+     */
+    boolean find(final ByteBuffer data, final int offset, final int limit) {
+        int state = ROOT;
+        for (int i = offset; i < limit; i++) {
+            if (state == ROOT) {
+                i = skip(data, i, limit);
+                if (i == limit) break;
+            }
+            state = next(state, data.get(i));
+            if (outputs[state] != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns automaton state after consuming given byte.
+     *
+     * @param state current state
+     * @param b consumed byte
+     * @return next state
+     */
+    int next(final int state, final byte b) {
+        if (transitions != null) return transitions[state * classesCount + byteClasses[b & 0xFF]];
+        if (byteClasses[b & 0xFF] == 0) return ROOT;
+        return next(failures, state, b);
+    }
+
+    private int next(final int[] failures, int state, final byte b) {
+        int child = child(state, b);
+        while (child == ROOT && state != ROOT) {
+            state = failures[state];
+            child = child(state, b);
+        }
+        return child;
+    }
+
+    /**
+     * Returns trie child of given state.
+     *
+     * @param state parent state
+     * @param b edge label
+     * @return child state or <code>ROOT</code> if there is no such child
+     */
+    private int child(final int state, final byte b) {
+        int low = edgeStarts[state], high = edgeStarts[state + 1] - 1, middle, diff;
+        while (low <= high) {
+            middle = (low + high) >>> 1;
+            diff = (edgeLabels[middle] & 0xFF) - (b & 0xFF);
+            if (diff == 0) return edgeTargets[middle];
+            if (diff < 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return ROOT;
+    }
+
+    private static int commonPrefixLength(final byte[] pattern1, final byte[] pattern2) {
+        final int length = Math.min(pattern1.length, pattern2.length);
+        for (int i = 0; i < length; i++) {
+            if (pattern1[i] != pattern2[i]) return i;
+        }
+        return length;
+    }
+
+    private static int compare(final byte[] pattern1, final byte[] pattern2) {
+        final int length = Math.min(pattern1.length, pattern2.length);
+        int diff;
+        for (int i = 0; i < length; i++) {
+            diff = (pattern1[i] & 0xFF) - (pattern2[i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return pattern1.length - pattern2.length;
+    }
+
+    /**
+     * Returns the lowest index of pattern ending in given state. Identical patterns end in the same state.
+     *
+     * @param state automaton state
+     * @return pattern index or <code>zero</code> if no pattern ends in given state
+     */
+    int match(final int state) {
+        return outputs[state];
+    }
+
+    /**
+     * Returns the next greater index of pattern identical to given pattern.
+     *
+     * @param patternIndex pattern index
+     * @return pattern index or <code>zero</code> if there is no such pattern
+     */
+    int nextDuplicate(final int patternIndex) {
+        return duplicates[patternIndex];
+    }
+
+}
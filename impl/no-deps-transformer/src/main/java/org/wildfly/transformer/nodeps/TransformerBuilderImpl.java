@@ -27,7 +27,7 @@ final class TransformerBuilderImpl extends TransformerBuilder {
 
     @Override
     public Transformer newInstance(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots) {
-        return new TransformerImpl(mappingWithSeps, mappingWithDots);
+        return new TransformerImpl(mappingWithSeps, mappingWithDots, getTextResources());
     }
 
 }
@@ -15,15 +15,16 @@
  */
 package org.wildfly.transformer.nodeps;
 
-import static java.lang.System.arraycopy;
 import static java.lang.Thread.currentThread;
 import static org.wildfly.transformer.nodeps.ClassFileUtils.*;
 
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import org.wildfly.transformer.TextResource;
 import org.wildfly.transformer.Transformer;
 
 /**
@@ -35,14 +36,26 @@ import org.wildfly.transformer.Transformer;
 final class TransformerImpl implements Transformer {
 
     private static final String CLASS_SUFFIX = ".class";
-    private static final String XML_SUFFIX = ".xml";
-    private static final String META_INF_SERVICES_PREFIX = "META-INF/services/";
+    /**
+     * Maximum length of <code>CONSTANT_Utf8_info</code> structure bytes, it is stored as unsigned short.
+     */
+    private static final int MAX_UTF8_LENGTH = 0xFFFF;
 
     /**
      * Debugging support.
      */
     private static final boolean DEBUG = Boolean.getBoolean(TransformerImpl.class.getName() + ".debug");
 
+    /**
+     * Per thread reusable <code>patch info</code> buffers.
+     */
+    private static final ThreadLocal<Patches> PATCHES = new ThreadLocal<Patches>() {
+        @Override
+        protected Patches initialValue() {
+            return new Patches();
+        }
+    };
+
     /**
      * Packages mapping with '/' char.
      */
@@ -66,126 +79,333 @@ final class TransformerImpl implements Transformer {
     private final byte[][] mappingTo;
 
     /**
-     * Used for detecting maximum size of internal patch info arrays and for decreasing patch search space.
+     * Used for decreasing patch search space.
      */
     private final int minimum;
 
+    /**
+     * Multi-pattern automaton compiled from <code>mappingFrom</code> strings.
+     */
+    private final MappingMatcher matcher;
+
+    /**
+     * Packages mapping with '/' char compiled for resource names rewriting.
+     */
+    private final PackageNameTrie packageNamesWithSeps;
+
+    /**
+     * Packages mapping with '.' char compiled for service resource names rewriting.
+     */
+    private final PackageNameTrie packageNamesWithDots;
+
+    /**
+     * Buffers wrapping <code>mappingTo</code> strings shared by all transformed class segments.
+     * Buffer on index <code>zero</code> is undefined. Buffers are defined from index <code>one</code>.
+     */
+    private final ByteBuffer[] replacements;
+
+    /**
+     * Represents strings we are searching for in text resources (packages mapping encoded in UTF-8).
+     * Mappings with '/' char are defined from index <code>one</code>, mapping with '.' char on index <code>i + sepsCount</code>
+     * is the same mapping as mapping with '/' char on index <code>i</code>. Mapping on index <code>zero</code> is undefined.
+     */
+    private final byte[][] textMappingFrom;
+
+    /**
+     * Holds for every <code>textMappingFrom</code> string packages mapping forms it represents
+     * (package names without '/' char are the same in both forms).
+     */
+    private final int[] textMappingForms;
+
+    /**
+     * Buffers wrapping UTF-8 encoded replacements of <code>textMappingFrom</code> strings shared by all transformed text resources.
+     * Buffer on index <code>zero</code> is undefined. Buffers are defined from index <code>one</code>.
+     */
+    private final ByteBuffer[] textReplacements;
+
+    /**
+     * Multi-pattern automaton compiled from <code>textMappingFrom</code> strings.
+     * It is shared with class file transformation if modified UTF-8 encoding of packages mapping is the same as UTF-8 one.
+     */
+    private final MappingMatcher textMatcher;
+
+    /**
+     * Count of packages mapping with '/' char.
+     */
+    private final int sepsCount;
+
+    /**
+     * Text resource types in their priority order.
+     */
+    private final List<TextResource> textResources;
+
+    /**
+     * Rewrites manifest text resources.
+     */
+    private final ManifestTransformer manifestTransformer;
+
     /**
      * Constructor.
      *
      * @param mappingWithSeps packages mapping in path separator form
      * @param mappingWithDots packages mapping in dot form
+     * @param textResources text resource types in their priority order
      */
-    TransformerImpl(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots) {
+    TransformerImpl(final Map<String, String> mappingWithSeps, final Map<String, String> mappingWithDots, final List<TextResource> textResources) {
         this.mappingWithSeps = mappingWithSeps;
         this.mappingWithDots =  mappingWithDots;
+        this.textResources = textResources;
+        this.manifestTransformer = new ManifestTransformer(mappingWithSeps, mappingWithDots);
         final int arraySize = mappingWithSeps.size() + mappingWithDots.size() + 1;
+        this.sepsCount = mappingWithSeps.size();
         this.mappingFrom = new byte[arraySize][];
         this.mappingTo = new byte[arraySize][];
+        this.textMappingFrom = new byte[arraySize][];
+        this.textMappingForms = new int[arraySize];
+        this.textReplacements = new ByteBuffer[arraySize];
         int i = 1;
-        int minimum = Integer.MAX_VALUE;
+        String fromWithSeps, fromWithDots, toWithDots;
         for (Map.Entry<String, String> mappingEntry : mappingWithSeps.entrySet()) {
-            mappingFrom[i] = stringToUtf8(mappingEntry.getKey());
+            // mapping with '.' char is stored on index i + sepsCount
+            fromWithSeps = mappingEntry.getKey();
+            fromWithDots = fromWithSeps.replace('/', '.');
+            toWithDots = mappingWithDots.get(fromWithDots);
+            mappingFrom[i] = stringToUtf8(fromWithSeps);
             mappingTo[i] = stringToUtf8(mappingEntry.getValue());
-            if (minimum > mappingFrom[i].length) {
-                minimum = mappingFrom[i].length;
-            }
+            mappingFrom[i + sepsCount] = stringToUtf8(fromWithDots);
+            mappingTo[i + sepsCount] = stringToUtf8(toWithDots);
+            textMappingFrom[i] = fromWithSeps.getBytes(StandardCharsets.UTF_8);
+            textMappingForms[i] = fromWithSeps.indexOf('/') == -1 ? TextResource.SEPS | TextResource.DOTS : TextResource.SEPS;
+            textReplacements[i] = ByteBuffer.wrap(mappingEntry.getValue().getBytes(StandardCharsets.UTF_8));
+            textMappingFrom[i + sepsCount] = fromWithDots.getBytes(StandardCharsets.UTF_8);
+            textMappingForms[i + sepsCount] = TextResource.DOTS;
+            textReplacements[i + sepsCount] = ByteBuffer.wrap(toWithDots.getBytes(StandardCharsets.UTF_8));
             i++;
         }
-        for (Map.Entry<String, String> mappingEntry : mappingWithDots.entrySet()) {
-            mappingFrom[i] = stringToUtf8(mappingEntry.getKey());
-            mappingTo[i] = stringToUtf8(mappingEntry.getValue());
+        int minimum = Integer.MAX_VALUE;
+        for (i = 1; i < arraySize; i++) {
             if (minimum > mappingFrom[i].length) {
                 minimum = mappingFrom[i].length;
             }
-            i++;
         }
         this.minimum = minimum;
+        this.matcher = new MappingMatcher(mappingFrom);
+        this.packageNamesWithSeps = new PackageNameTrie(mappingWithSeps);
+        this.packageNamesWithDots = new PackageNameTrie(mappingWithDots);
+        this.replacements = new ByteBuffer[arraySize];
+        for (i = 1; i < arraySize; i++) {
+            replacements[i] = ByteBuffer.wrap(mappingTo[i]);
+        }
+        this.textMatcher = Arrays.deepEquals(textMappingFrom, mappingFrom) ? matcher : new MappingMatcher(textMappingFrom);
     }
 
     @Override
     public Resource transform(final Resource r) {
-        String oldResourceName = r.getName();
-        String newResourceName = replacePackageName(oldResourceName, false);
+        final String oldResourceName = r.getName();
         if (oldResourceName.endsWith(CLASS_SUFFIX)) {
-            final byte[] newClazz = transform(r.getData());
-            if (newClazz != null) return new Resource(newResourceName, newClazz);
-        } else if (oldResourceName.endsWith(XML_SUFFIX)) {
-            return new Resource(newResourceName, xmlFile(r.getData()));
-        } else if (oldResourceName.startsWith(META_INF_SERVICES_PREFIX)) {
-            newResourceName = replacePackageName(oldResourceName, true);
-            if (!newResourceName.equals(oldResourceName)) {
-                return new Resource(newResourceName, r.getData());
-            }
-        } else if (!newResourceName.equals(oldResourceName)) {
-            return new Resource(newResourceName, r.getData());
+            final String newResourceName = packageNamesWithSeps.replace(oldResourceName);
+            final ByteBuffer clazz = r.getBuffer();
+            final ByteBuffer[] newClazz = transform(clazz, clazz.position(), clazz.limit());
+            return newClazz != null ? new Resource(newResourceName, newClazz) : null;
+        }
+        final TextResource textResource = TextResource.get(textResources, oldResourceName);
+        final String newResourceName = getPackageNames(textResource).replace(oldResourceName);
+        if (textResource != null) {
+            final ByteBuffer text = r.getBuffer();
+            final ByteBuffer[] newText = textResource.isManifest() ? manifestTransformer.transform(text, text.position(), text.limit())
+                    : textFile(text, text.position(), text.limit(), textResource.getForms());
+            if (newText != null) return new Resource(newResourceName, newText);
+        }
+        if (newResourceName != oldResourceName) {
+            return new Resource(newResourceName, r.getBuffer()); // renamed only, content is shared
         }
         return null; // returning null means nothing was transformed (indicates copy original content)
     }
 
-    private String replacePackageName(final String resourceName, final boolean dotFormat) {
-        int startIndex;
-        for (final Map.Entry<String, String> mapping : (dotFormat ? mappingWithDots : mappingWithSeps).entrySet()) {
-            startIndex = resourceName.indexOf(mapping.getKey());
-            if (startIndex != -1) {
-                return resourceName.substring(0, startIndex) + mapping.getValue() + resourceName.substring(startIndex + mapping.getKey().length());
+    @Override
+    public boolean requiresTransformation(final byte[] data, final int off, final int len, final String name) {
+        if (name.endsWith(CLASS_SUFFIX)) return requiresTransformation(ByteBuffer.wrap(data), off, off + len);
+        final TextResource textResource = TextResource.get(textResources, name);
+        if (getPackageNames(textResource).contains(name)) return true;
+        if (textResource == null) return false;
+        if (textResource.isManifest()) return manifestTransformer.requiresTransformation(ByteBuffer.wrap(data), off, off + len);
+        return textContainsPattern(ByteBuffer.wrap(data), off, off + len, textResource.getForms());
+    }
+
+    @Override
+    public boolean transformsContent(final String name) {
+        return name.endsWith(CLASS_SUFFIX) || TextResource.get(textResources, name) != null;
+    }
+
+    @Override
+    public List<TextResource> getTextResources() {
+        return textResources;
+    }
+
+    private PackageNameTrie getPackageNames(final TextResource textResource) {
+        return textResource != null && textResource.isDottedName() ? packageNamesWithDots : packageNamesWithSeps;
+    }
+
+    /**
+     * Returns <code>true</code> if some <code>CONSTANT_Utf8_info</code> structure of the class contains mapped package.
+     * Constant pool is walked in place, nothing is allocated.
+     *
+     * @param clazz buffer containing class bytes
+     * @param offset the index of the first class byte in the buffer
+     * @param limit first index not belonging to the class
+     * @return <code>true</code> if class needs to be transformed, <code>false</code> otherwise
+     */
+    private boolean requiresTransformation(final ByteBuffer clazz, final int offset, final int limit) {
+        final int constantPoolSize = readUnsignedShort(clazz, offset + POOL_SIZE_INDEX);
+        int position = offset + POOL_CONTENT_INDEX, utf8Length;
+        byte tag;
+
+        for (int i = 1; i < constantPoolSize && position < limit; i++) {
+            tag = clazz.get(position);
+            if (tag == UTF8) {
+                utf8Length = readUnsignedShort(clazz, position + 1);
+                if (utf8Length >= minimum && matcher.find(clazz, position + 3, position + 3 + utf8Length)) return true;
+            } else if (tag == LONG || tag == DOUBLE) {
+                i++;
             }
+            position = nextConstantPoolItem(clazz, position);
+        }
+        return false;
+    }
+
+    private boolean textContainsPattern(final ByteBuffer text, final int offset, final int limit, final int forms) {
+        if (!isAsciiCompatible(text, offset, limit)) return false;
+        if (forms == (TextResource.SEPS | TextResource.DOTS)) return textMatcher.find(text, offset, limit);
+        final Patches patches = PATCHES.get();
+        patches.size = 0;
+        try {
+            return addMatches(textMatcher, textMappingFrom, textMappingForms, forms, text, offset, limit, patches) != 0;
+        } finally {
+            patches.release();
         }
-        return resourceName;
     }
 
-    private static byte[] xmlFile(final byte[] data) {
+    /**
+     * Transforms text resource. Raw bytes are scanned for packages mapping in given forms in a single pass,
+     * text is neither decoded nor copied. Patched text resources are returned as segments referencing
+     * original text bytes and shared replacements.
+     * Only encodings compatible with ASCII (e.g. UTF-8 or ISO-8859-1) are supported, other text resources are left untouched.
+     *
+     * @param text buffer containing text resource bytes
+     * @param offset the index of the first text resource byte in the buffer
+     * @param limit first index not belonging to the text resource
+     * @param forms packages mapping forms to rewrite text with
+     * @return transformed text resource segments or <code>null</code> if text resource was not modified
+     */
+    private ByteBuffer[] textFile(final ByteBuffer text, final int offset, final int limit, final int forms) {
+        if (!isAsciiCompatible(text, offset, limit)) return null;
+        final Patches patches = PATCHES.get();
+        patches.size = 0;
         try {
-            // TODO: use mapping provided in constructor!!!
-            return new String(data, "UTF-8").replace("javax.", "jakarta.").getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            return null; // should never happen
+            final int matchesCount = addMatches(textMatcher, textMappingFrom, textMappingForms, forms, text, offset, limit, patches);
+            if (matchesCount == 0) return null;
+            final ByteBuffer[] segments = new ByteBuffer[2 * matchesCount + 1];
+            int segmentIndex = 0, oldTextOffset = offset, mappingIndex, patchOffset;
+            for (int p = 0; p < patches.size;) {
+                mappingIndex = patches.data[p++];
+                patchOffset = patches.data[p++];
+                segments[segmentIndex++] = slice(text, oldTextOffset, patchOffset);
+                segments[segmentIndex++] = getTextReplacement(mappingIndex, forms);
+                oldTextOffset = patchOffset + textMappingFrom[mappingIndex].length;
+            }
+            segments[segmentIndex] = slice(text, oldTextOffset, limit);
+            return segments;
+        } finally {
+            patches.release();
+        }
+    }
+
+    /**
+     * Returns replacement of matched text resource string. Package names without '/' char are always reported
+     * as mappings with '/' char, replacement in dot form is used if text resource references packages in dot form.
+     *
+     * @param mappingIndex matched mapping index
+     * @param forms packages mapping forms text resource is rewritten with
+     * @return replacement
+     */
+    private ByteBuffer getTextReplacement(final int mappingIndex, final int forms) {
+        if (mappingIndex <= sepsCount && (forms & textMappingForms[mappingIndex] & TextResource.DOTS) != 0) {
+            return textReplacements[mappingIndex + sepsCount];
         }
+        return textReplacements[mappingIndex];
     }
 
-    private byte[] transform(final byte[] clazz) {
-        final int[] constantPool = getConstantPool(clazz);
-        int diffInBytes = 0, position, utf8Length;
+    /**
+     * Returns <code>false</code> if text resource starts with UTF-16 or UTF-32 byte order mark
+     * or with a character encoded using zero byte (e.g. XML declaration in UTF-16 or UTF-32 without byte order mark).
+     *
+     * @param text buffer containing text resource bytes
+     * @param offset the index of the first text resource byte in the buffer
+     * @param limit first index not belonging to the text resource
+     * @return <code>true</code> if text resource encoding is compatible with ASCII, <code>false</code> otherwise
+     */
+    private static boolean isAsciiCompatible(final ByteBuffer text, final int offset, final int limit) {
+        if (limit - offset < 2) return true;
+        final int b0 = text.get(offset) & 0xFF;
+        final int b1 = text.get(offset + 1) & 0xFF;
+        if (b0 == 0 || b1 == 0) return false;
+        return !(b0 == 0xFE && b1 == 0xFF) && !(b0 == 0xFF && b1 == 0xFE);
+    }
+
+    /**
+     * Transforms class.
+     * Constant pool is walked in place and detected patches are recorded into per thread reusable buffer,
+     * so nothing is allocated for classes not containing mapped packages. Patched classes are returned
+     * as segments referencing original class byte code, thus class byte code is never copied.
+     *
+     * @param clazz buffer containing class bytes
+     * @param offset the index of the first class byte in the buffer
+     * @param limit first index not belonging to the class
+     * @return transformed class segments or <code>null</code> if class was not modified
+     */
+    private ByteBuffer[] transform(final ByteBuffer clazz, final int offset, final int limit) {
+        final Patches patches = PATCHES.get();
+        final int constantPoolSize = readUnsignedShort(clazz, offset + POOL_SIZE_INDEX);
+        int diffInBytes = 0, position = offset + POOL_CONTENT_INDEX, utf8Length;
         byte tag;
-        List<int[]> patches = null;
-        int[] patch;
 
-        for (int i = 1; i < constantPool.length; i++) {
-            position = constantPool[i];
-            if (position == 0) continue;
-            tag = clazz[position++];
+        patches.size = 0;
+        for (int i = 1; i < constantPoolSize; i++) {
+            tag = clazz.get(position);
             if (tag == UTF8) {
-                utf8Length = readUnsignedShort(clazz, position);
-                position += 2;
-                patch = getPatch(clazz, position, position + utf8Length, i);
-                if (patch != null) {
-                    if (patches == null) {
-                        patches = new ArrayList<>(countUtf8Items(clazz, constantPool));
-                    }
-                    diffInBytes += patch[1];
-                    patches.add(patch);
+                utf8Length = readUnsignedShort(clazz, position + 1);
+                if (utf8Length >= minimum) {
+                    diffInBytes += addPatches(clazz, position, position + 3 + utf8Length, patches);
                 }
+            } else if (tag == LONG || tag == DOUBLE) {
+                i++;
             }
+            position = nextConstantPoolItem(clazz, position);
+        }
+        if (patches.size == 0) {
+            patches.release();
+            return null;
         }
-        if (diffInBytes > 0 && Integer.MAX_VALUE - diffInBytes < clazz.length) {
+        if (diffInBytes > 0 && Integer.MAX_VALUE - diffInBytes < limit - offset) {
+            patches.release();
             throw new UnsupportedOperationException("Couldn't patch class file. The transformed class file would exceed max allowed size " + Integer.MAX_VALUE + " bytes");
         }
         String thisClass = null;
-        if (DEBUG && patches != null) {
+        if (DEBUG) {
+            final int[] constantPool = getConstantPool(clazz, offset);
             final int thisClassPoolIndex = readUnsignedShort(clazz, constantPool[0] + 2);
             final int thisClassUtf8Position = constantPool[readUnsignedShort(clazz, constantPool[thisClassPoolIndex] + 1)];
             final int thisClassUtf8Length = readUnsignedShort(clazz, thisClassUtf8Position + 1);
-            if (DEBUG) {
-                synchronized (System.out) {
-                    thisClass = utf8ToString(clazz, thisClassUtf8Position + 3, thisClassUtf8Position + thisClassUtf8Length + 3);
-                    System.out.println("[" + currentThread() + "] Patching class " + thisClass + " - START");
-                }
+            synchronized (System.out) {
+                thisClass = utf8ToString(clazz, thisClassUtf8Position + 3, thisClassUtf8Position + thisClassUtf8Length + 3);
+                System.out.println("[" + currentThread() + "] Patching class " + thisClass + " - START");
             }
         }
         try {
-            return patches == null ? null : applyPatches(clazz, clazz.length + diffInBytes, constantPool, patches);
+            return getSegments(clazz, offset, limit, patches);
         } finally {
-            if (DEBUG && patches != null) {
+            patches.release();
+            if (DEBUG) {
                 synchronized (System.out) {
                     System.out.println("[" + currentThread() + "] Patching class " + thisClass + " - END");
                 }
@@ -194,135 +414,222 @@ final class TransformerImpl implements Transformer {
     }
 
     /**
-     * Returns modified class byte code with patches applied.
+     * Returns modified class byte code with patches applied as sequence of segments.
+     * Segments are either original class byte code slices, patched <code>CONSTANT_Utf8_info</code> structure lengths
+     * or replacement strings, so class byte code is not copied.
      *
-     * @param oldClass original class byte code
-     * @param newClassSize count of bytes of new class byte code
-     * @param oldClassConstantPool pointers to old class constant pool items
+     * @param oldClass buffer containing original class byte code
+     * @param offset the index of the first original class byte in the buffer
+     * @param limit first index not belonging to the original class
      * @param patches patches to apply
-     * @return modified class byte code with patches applied
+     * @return modified class byte code segments
      */
-    private byte[] applyPatches(final byte[] oldClass, final int newClassSize, final int[] oldClassConstantPool, final List<int[]> patches) {
-        final byte[] newClass = new byte[newClassSize];
-        int oldClassOffset = 0, newClassOffset = 0;
-        int length, mappingIndex, oldUtf8ItemBytesSectionOffset, oldUtf8ItemLength, patchOffset;
-        int debugOldUtf8ItemOffset = -1, debugNewUtf8ItemOffset = -1;
-        int debugOldUtf8ItemLength = -1, debugNewUtf8ItemLength = -1;
-
-        // First copy magic, version and constant pool size
-        arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, POOL_CONTENT_INDEX);
-        oldClassOffset = newClassOffset = POOL_CONTENT_INDEX;
-
-        for (int[] patch : patches) {
-            if (patch == null) break;
-            oldUtf8ItemBytesSectionOffset = oldClassConstantPool[patch[0]] + 3;
-            // copy till start of next utf8 item bytes section
-            length = oldUtf8ItemBytesSectionOffset - oldClassOffset;
-            arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-            oldClassOffset += length;
-            newClassOffset += length;
-            if (DEBUG) {
-                debugOldUtf8ItemOffset = oldClassOffset;
-                debugNewUtf8ItemOffset = newClassOffset;
-            }
-            // patch utf8 item length
-            oldUtf8ItemLength = readUnsignedShort(oldClass, oldClassOffset - 2);
-            writeUnsignedShort(newClass, newClassOffset - 2, oldUtf8ItemLength + patch[1]);
-            // apply utf8 info bytes section patches
-            for (int i = 2; i < patch.length;) {
-                mappingIndex = patch[i++];
-                if (mappingIndex == 0) break;
-                patchOffset = patch[i++];
-                // copy till begin of patch
-                length = patchOffset - (oldClassOffset - oldUtf8ItemBytesSectionOffset);
-                arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-                oldClassOffset += length;
-                newClassOffset += length;
-                // apply patch
-                arraycopy(mappingTo[mappingIndex], 0, newClass, newClassOffset, mappingTo[mappingIndex].length);
-                oldClassOffset += mappingFrom[mappingIndex].length;
-                newClassOffset += mappingTo[mappingIndex].length;
+    private ByteBuffer[] getSegments(final ByteBuffer oldClass, final int offset, final int limit, final Patches patches) {
+        final int[] patchesData = patches.data;
+        int segmentsCount = 1, itemsCount = 0;
+        for (int p = 0; p < patches.size; p += 3 + 2 * patchesData[p + 2]) {
+            segmentsCount += 2 + 2 * patchesData[p + 2];
+            itemsCount++;
+        }
+        final ByteBuffer[] segments = new ByteBuffer[segmentsCount];
+        final byte[] newUtf8ItemLengths = new byte[itemsCount * 2];
+        int segmentIndex = 0, lengthIndex = 0, oldClassOffset = offset;
+        int mappingIndex, oldUtf8ItemPosition, patchOffset, patchesCount, newUtf8ItemLength;
+
+        for (int p = 0; p < patches.size;) {
+            oldUtf8ItemPosition = patchesData[p++];
+            // original class byte code till utf8 item length
+            segments[segmentIndex++] = slice(oldClass, oldClassOffset, oldUtf8ItemPosition + 1);
+            // patched utf8 item length
+            newUtf8ItemLength = readUnsignedShort(oldClass, oldUtf8ItemPosition + 1) + patchesData[p++];
+            if (newUtf8ItemLength > MAX_UTF8_LENGTH) {
+                throw new UnsupportedOperationException("Couldn't patch class file. The transformed CONSTANT_Utf8_info structure would exceed max allowed length " + MAX_UTF8_LENGTH + " bytes");
             }
-            // copy remaining class byte code till utf8 item end
-            length = oldUtf8ItemBytesSectionOffset + oldUtf8ItemLength - oldClassOffset;
-            arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-            oldClassOffset += length;
-            newClassOffset += length;
-            if (DEBUG) {
-                synchronized (System.out) {
-                    System.out.println("[" + currentThread() + "] Patching UTF-8 constant pool item on position: " + patch[0]);
-                    debugOldUtf8ItemLength = readUnsignedShort(oldClass, debugOldUtf8ItemOffset - 2);
-                    System.out.println("[" + currentThread() + "] old value: " + utf8ToString(oldClass, debugOldUtf8ItemOffset, debugOldUtf8ItemOffset + debugOldUtf8ItemLength));
-                    debugNewUtf8ItemLength = readUnsignedShort(newClass, debugNewUtf8ItemOffset - 2);
-                    System.out.println("[" + currentThread() + "] new value: " + utf8ToString(newClass, debugNewUtf8ItemOffset, debugNewUtf8ItemOffset + debugNewUtf8ItemLength));
-                }
+            writeUnsignedShort(newUtf8ItemLengths, lengthIndex, newUtf8ItemLength);
+            segments[segmentIndex++] = ByteBuffer.wrap(newUtf8ItemLengths, lengthIndex, 2);
+            lengthIndex += 2;
+            oldClassOffset = oldUtf8ItemPosition + 3;
+            // utf8 info bytes section patches
+            patchesCount = patchesData[p++];
+            for (int i = 0; i < patchesCount; i++) {
+                mappingIndex = patchesData[p++];
+                patchOffset = patchesData[p++];
+                segments[segmentIndex++] = slice(oldClass, oldClassOffset, patchOffset);
+                segments[segmentIndex++] = replacements[mappingIndex];
+                oldClassOffset = patchOffset + mappingFrom[mappingIndex].length;
             }
         }
+        // remaining class byte code
+        segments[segmentIndex] = slice(oldClass, oldClassOffset, limit);
+        if (DEBUG) {
+            debugPatches(oldClass, offset, ByteBuffer.wrap(new Resource("", segments).getData()), patches);
+        }
 
-        // copy remaining class byte code
-        arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, oldClass.length - oldClassOffset);
+        return segments;
+    }
 
-        return newClass;
+    private static ByteBuffer slice(final ByteBuffer source, final int from, final int to) {
+        final ByteBuffer retVal = source.duplicate();
+        retVal.limit(to);
+        retVal.position(from);
+        return retVal;
+    }
+
+    private static void debugPatches(final ByteBuffer oldClass, final int offset, final ByteBuffer newClass, final Patches patches) {
+        final int[] patchesData = patches.data;
+        int diffInBytes = 0, oldUtf8ItemPosition, newUtf8ItemPosition, oldUtf8ItemLength, newUtf8ItemLength;
+
+        for (int p = 0; p < patches.size; p += 3 + 2 * patchesData[p + 2]) {
+            oldUtf8ItemPosition = patchesData[p];
+            newUtf8ItemPosition = oldUtf8ItemPosition - offset + diffInBytes;
+            oldUtf8ItemLength = readUnsignedShort(oldClass, oldUtf8ItemPosition + 1);
+            newUtf8ItemLength = readUnsignedShort(newClass, newUtf8ItemPosition + 1);
+            diffInBytes += patchesData[p + 1];
+            synchronized (System.out) {
+                System.out.println("[" + currentThread() + "] Patching UTF-8 constant pool item on position: " + (oldUtf8ItemPosition - offset));
+                System.out.println("[" + currentThread() + "] old value: " + utf8ToString(oldClass, oldUtf8ItemPosition + 3, oldUtf8ItemPosition + 3 + oldUtf8ItemLength));
+                System.out.println("[" + currentThread() + "] new value: " + utf8ToString(newClass, newUtf8ItemPosition + 3, newUtf8ItemPosition + 3 + newUtf8ItemLength));
+            }
+        }
     }
 
     /**
-     * Returns <code>patch info</code> if patches were detected or <code>null</code> if there is no patch applicable.
-     * Every <code>patch info</code> has the following format:
+     * Records <code>patch info</code> of investigated <code>CONSTANT_Utf8_info</code> structure if patches were detected.
+     * Every <code>patch info</code> is appended to <code>patches</code> buffer and has the following format:
      * <p>
      *     <pre>
      *        +-------------+ PATCH INFO STRUCTURE HEADER
-     *        | integer 0   | holds <code>Constant_Utf8_info</code> index inside class's <code>constant pool</code> table
+     *        | integer 0   | holds <code>CONSTANT_Utf8_info</code> structure position inside class buffer
      *        | integer 1   | holds <code>CONSTANT_Utf8_info</code> structure difference in bytes after applied patches
+     *        | integer 2   | holds count of applied patches
      *        +-------------+ PATCH INFO STRUCTURE DATA
-     *        | integer 2   | holds non-zero mapping index in mapping tables of 1-st applied patch
-     *        | integer 3   | holds index of 1-st patch start inside bytes section of original <code>CONSTANT_Utf8_info</code> structure
+     *        | integer 3   | holds non-zero mapping index in mapping tables of 1-st applied patch
+     *        | integer 4   | holds position of 1-st patch start inside class buffer
      *        +-------------+
-     *        | integer 4   | holds non-zero mapping index in mapping tables of 2-nd applied patch
-     *        | integer 5   | holds index of 2-nd patch start inside bytes section of original <code>CONSTANT_Utf8_info</code> structure
+     *        | integer 5   | holds non-zero mapping index in mapping tables of 2-nd applied patch
+     *        | integer 6   | holds position of 2-nd patch start inside class buffer
      *        +-------------+
      *        |    ...      | etc
-     *        |             |
-     *        +-------------+
-     *        | integer N-1 | mapping index equal to zero indicates premature <code>patch info</code> structure end
-     *        | integer N   |
      *        +-------------+
      *     </pre>
      * </p>
      *
      * @param clazz class byte code
-     * @param offset beginning index of <code>CONSTANT_Utf8_info</code> structure being investigated
+     * @param position position of <code>CONSTANT_Utf8_info</code> structure being investigated
      * @param limit first index not belonging to investigated <code>CONSTANT_Utf8_info</code> structure
-     * @return
+     * @param patches buffer to append <code>patch info</code> to
+     * @return <code>CONSTANT_Utf8_info</code> structure difference in bytes after applied patches
      */
-    private int[] getPatch(final byte[] clazz, final int offset, final int limit, final int poolIndex) {
-        int[] retVal = null;
-        int mappingIndex;
-        int patchIndex = 2;
-
-        for (int i = offset; i <= limit - minimum; i++) {
-            for (int j = 1; j < mappingFrom.length; j++) {
-                if (limit - i < mappingFrom[j].length) continue;
-                mappingIndex = j;
-                for (int k = 0; k < mappingFrom[j].length; k++) {
-                    if (clazz[i + k] != mappingFrom[j][k]) {
-                        mappingIndex = 0;
-                        break;
-                    }
-                }
-                if (mappingIndex != 0) {
-                    if (retVal == null) {
-                        retVal = new int[(((limit - i) / minimum) + 1) * 2];
-                        retVal[0] = poolIndex;
-                    }
-                    retVal[patchIndex++] = mappingIndex;
-                    retVal[patchIndex++] = i - offset;
-                    retVal[1] += mappingTo[mappingIndex].length - mappingFrom[mappingIndex].length;
-                    i += mappingFrom[j].length;
-                }
+    private int addPatches(final ByteBuffer clazz, final int position, final int limit, final Patches patches) {
+        final int header = patches.size;
+        patches.add(position, 0, 0);
+        final int patchesCount = addMatches(matcher, mappingFrom, null, 0, clazz, position + 3, limit, patches);
+        if (patchesCount == 0) {
+            patches.size = header;
+            return 0;
+        }
+        int diffInBytes = 0, mappingIndex;
+        for (int p = header + 3; p < patches.size; p += 2) {
+            mappingIndex = patches.data[p];
+            diffInBytes += mappingTo[mappingIndex].length - mappingFrom[mappingIndex].length;
+        }
+        patches.data[header + 1] = diffInBytes;
+        patches.data[header + 2] = patchesCount;
+
+        return diffInBytes;
+    }
+
+    /**
+     * Appends mapping index and start position of the leftmost non overlapping pattern matches within given range
+     * to <code>patches</code> buffer. If patterns forms are specified only patterns of given forms are matched.
+     *
+     * @param matcher automaton compiled from patterns
+     * @param patterns patterns the automaton was compiled from
+     * @param patternForms packages mapping forms of patterns or <code>null</code> if all patterns are matched
+     * @param forms packages mapping forms of matched patterns
+     * @param data bytes to inspect
+     * @param offset the index of the first byte to inspect
+     * @param limit first index not belonging to inspected range
+     * @param patches buffer to append matches to
+     * @return count of appended matches
+     */
+    private static int addMatches(final MappingMatcher matcher, final byte[][] patterns, final int[] patternForms, final int forms,
+                                  final ByteBuffer data, final int offset, final int limit, final Patches patches) {
+        int matchesCount = 0, state = MappingMatcher.ROOT;
+        int nextAllowedStart = offset, lastMappingIndex = 0;
+        int mappingIndex, start;
+
+        for (int i = offset; i < limit; i++) {
+            if (state == MappingMatcher.ROOT) {
+                // no partial match in progress, skip regions where no match can start
+                i = matcher.skip(data, i, limit);
+                if (i == limit) break;
+            }
+            state = matcher.next(state, data.get(i));
+            mappingIndex = matcher.match(state);
+            if (mappingIndex == 0) continue;
+            // matches are reported ordered by their end index, as no pattern is a substring of another pattern
+            // at most one pattern ends at every index and matches are ordered by their start index too
+            start = i + 1 - patterns[mappingIndex].length;
+            // accept non overlapping matches only
+            if (start < nextAllowedStart) continue;
+            // pick the lowest index of identical patterns, match starting right where the previous one ended must have
+            // greater mapping index than the previous one (patterns were originally tested in mapping index order there)
+            while (mappingIndex != 0 && ((patternForms != null && (patternForms[mappingIndex] & forms) == 0)
+                    || (start == nextAllowedStart && mappingIndex <= lastMappingIndex))) {
+                mappingIndex = matcher.nextDuplicate(mappingIndex);
+            }
+            if (mappingIndex == 0) continue;
+            patches.add(mappingIndex, start);
+            matchesCount++;
+            nextAllowedStart = start + patterns[mappingIndex].length;
+            lastMappingIndex = mappingIndex;
+        }
+
+        return matchesCount;
+    }
+
+    /**
+     * Growable buffer of <code>patch info</code> structures. Every thread reuses its own instance
+     * for all transformed classes. Instances of this class are not thread safe.
+     */
+    private static final class Patches {
+
+        /**
+         * Buffers growing over this limit are not retained after class was transformed.
+         */
+        private static final int MAX_RETAINED_SIZE = 16 * 1024;
+        private static final int INITIAL_SIZE = 256;
+
+        private int[] data = new int[INITIAL_SIZE];
+        private int size;
+
+        private void add(final int value1, final int value2) {
+            ensureCapacity(2);
+            data[size++] = value1;
+            data[size++] = value2;
+        }
+
+        private void add(final int value1, final int value2, final int value3) {
+            ensureCapacity(3);
+            data[size++] = value1;
+            data[size++] = value2;
+            data[size++] = value3;
+        }
+
+        private void ensureCapacity(final int count) {
+            if (size + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length << 1, size + count));
+            }
+        }
+
+        private void release() {
+            size = 0;
+            if (data.length > MAX_RETAINED_SIZE) {
+                data = new int[INITIAL_SIZE];
             }
         }
 
-        return retVal;
     }
 
 }
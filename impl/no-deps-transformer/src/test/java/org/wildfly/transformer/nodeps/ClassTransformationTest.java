@@ -0,0 +1,253 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.nodeps;
+
+import static org.wildfly.transformer.nodeps.ClassFileUtils.stringToUtf8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.wildfly.transformer.TextResource;
+import org.wildfly.transformer.Transformer.Resource;
+
+/**
+ * Differential tests of class transformation comparing {@link MappingMatcher} based patching
+ * with the original naive scan testing every pattern on every index of every <code>CONSTANT_Utf8_info</code> structure.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ClassTransformationTest extends TestCase {
+
+    /**
+     * Constant pool entry with adjacent and overlapping matches of tested packages mapping.
+     */
+    private static final String ADJACENT_MATCHES = "(Ljava/lang/String;Ljava/lang/Object;)Ljava/util/List;java.lang.String;Ljava.io.Object";
+
+    private static final String[] CLASSES = {
+        "java/lang/String.class",
+        "java/lang/Thread.class",
+        "java/util/HashMap.class",
+        "java/util/concurrent/ConcurrentHashMap.class",
+        "java/io/ObjectInputStream.class",
+        "java/lang/invoke/MethodHandles.class",
+        ClassTransformationTest.class.getName().replace('.', '/') + ".class",
+        TransformerImpl.class.getName().replace('.', '/') + ".class",
+    };
+
+    public void testMappingOrder() throws IOException {
+        final Map<String, String> mappingWithSeps = new LinkedHashMap<>();
+        mappingWithSeps.put("java/lang/", "jakarta/lang/");
+        mappingWithSeps.put("String;Ljava/", "Text;Ljakarta/");
+        mappingWithSeps.put("java/util/", "jakarta/utilities/");
+        mappingWithSeps.put("java/io/", "jio/");
+        mappingWithSeps.put("Object", "Thing");
+        assertSameAsNaiveScan(mappingWithSeps);
+    }
+
+    public void testReversedMappingOrder() throws IOException {
+        final Map<String, String> mappingWithSeps = new LinkedHashMap<>();
+        mappingWithSeps.put("Object", "Thing");
+        mappingWithSeps.put("java/io/", "jio/");
+        mappingWithSeps.put("java/util/", "jakarta/utilities/");
+        mappingWithSeps.put("String;Ljava/", "Text;Ljakarta/");
+        mappingWithSeps.put("java/lang/", "jakarta/lang/");
+        assertSameAsNaiveScan(mappingWithSeps);
+    }
+
+    public void testSubstringPatternsAreRejected() {
+        final Map<String, String> mappingWithSeps = new LinkedHashMap<>();
+        mappingWithSeps.put("java/lang/", "jakarta/lang/");
+        mappingWithSeps.put("lang/", "language/");
+        try {
+            newTransformer(mappingWithSeps);
+            fail("Substring patterns must be rejected");
+        } catch (final IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    public void testOversizedUtf8IsRejected() {
+        final Map<String, String> mappingWithSeps = new LinkedHashMap<>();
+        mappingWithSeps.put("java/lang/", "jakarta/lang/");
+        final byte[] utf8 = stringToUtf8(new String(new char[6500]).replace("\0", "java/lang/"));
+        // magic, version 52, constant pool with single CONSTANT_Utf8_info structure and empty class body
+        final ByteArrayOutputStream clazz = new ByteArrayOutputStream();
+        clazz.write(new byte[] {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 52, 0, 2, 1}, 0, 11);
+        clazz.write(utf8.length >>> 8);
+        clazz.write(utf8.length);
+        clazz.write(utf8, 0, utf8.length);
+        clazz.write(new byte[14], 0, 14);
+        try {
+            newTransformer(mappingWithSeps).transform(new Resource("Oversized.class", clazz.toByteArray()));
+            fail("CONSTANT_Utf8_info structure exceeding 65535 bytes must be rejected");
+        } catch (final UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
+    private static void assertSameAsNaiveScan(final Map<String, String> mappingWithSeps) throws IOException {
+        final TransformerImpl t = newTransformer(mappingWithSeps);
+        // mapping tables are built the same way as by transformer: all mappings in path separator form first
+        final List<byte[]> mappingFrom = new ArrayList<>(), mappingTo = new ArrayList<>();
+        mappingFrom.add(null);
+        mappingTo.add(null);
+        for (Map.Entry<String, String> mappingEntry : mappingWithSeps.entrySet()) {
+            mappingFrom.add(stringToUtf8(mappingEntry.getKey()));
+            mappingTo.add(stringToUtf8(mappingEntry.getValue()));
+        }
+        for (Map.Entry<String, String> mappingEntry : mappingWithSeps.entrySet()) {
+            mappingFrom.add(stringToUtf8(mappingEntry.getKey().replace('/', '.')));
+            mappingTo.add(stringToUtf8(mappingEntry.getValue().replace('/', '.')));
+        }
+        final byte[][] from = mappingFrom.toArray(new byte[0][]);
+        final byte[][] to = mappingTo.toArray(new byte[0][]);
+        int transformedClasses = 0;
+        for (String className : CLASSES) {
+            final byte[] clazz = read(className);
+            final byte[] expected = naiveTransform(clazz, from, to);
+            final Resource r = t.transform(new Resource(className, clazz));
+            if (expected == null) {
+                assertTrue(className, r == null || Arrays.equals(clazz, r.getData()));
+            } else {
+                assertNotNull(className, r);
+                assertTrue(className, Arrays.equals(expected, r.getData()));
+                transformedClasses++;
+            }
+        }
+        assertEquals(CLASSES.length, transformedClasses);
+    }
+
+    private static TransformerImpl newTransformer(final Map<String, String> mappingWithSeps) {
+        final Map<String, String> mappingWithDots = new LinkedHashMap<>();
+        for (Map.Entry<String, String> mappingEntry : mappingWithSeps.entrySet()) {
+            mappingWithDots.put(mappingEntry.getKey().replace('/', '.'), mappingEntry.getValue().replace('/', '.'));
+        }
+        return new TransformerImpl(mappingWithSeps, mappingWithDots, TextResource.getDefaults());
+    }
+
+    /**
+     * Patches all <code>CONSTANT_Utf8_info</code> structures the way original transformer did.
+     *
+     * @return transformed class or <code>null</code> if class was not modified
+     */
+    private static byte[] naiveTransform(final byte[] clazz, final byte[][] from, final byte[][] to) {
+        final ByteArrayOutputStream newClazz = new ByteArrayOutputStream(clazz.length);
+        final int poolSize = readUnsignedShort(clazz, 8);
+        int position = 10, length;
+        boolean modified = false;
+        newClazz.write(clazz, 0, position);
+        for (int i = 1; i < poolSize; i++) {
+            switch (clazz[position]) {
+                case 1: // utf8
+                    length = readUnsignedShort(clazz, position + 1);
+                    final byte[] bytes = naivePatch(clazz, position + 3, position + 3 + length, from, to);
+                    if (bytes != null) {
+                        modified = true;
+                        newClazz.write(1);
+                        newClazz.write(bytes.length >>> 8);
+                        newClazz.write(bytes.length);
+                        newClazz.write(bytes, 0, bytes.length);
+                    } else {
+                        newClazz.write(clazz, position, 3 + length);
+                    }
+                    position += 3 + length;
+                    continue;
+                case 5: // long
+                case 6: // double
+                    length = 9;
+                    i++;
+                    break;
+                case 7: // class
+                case 8: // string
+                case 16: // method type
+                case 19: // module
+                case 20: // package
+                    length = 3;
+                    break;
+                case 15: // method handle
+                    length = 4;
+                    break;
+                default: // integer, float, references, name and type, dynamic and invoke dynamic
+                    length = 5;
+            }
+            newClazz.write(clazz, position, length);
+            position += length;
+        }
+        newClazz.write(clazz, position, clazz.length - position);
+        return modified ? newClazz.toByteArray() : null;
+    }
+
+    /**
+     * Original naive scan. Every pattern is tested on every index, once some pattern matches the scan continues
+     * with remaining patterns right after the match and then with the next index.
+     *
+     * @return patched bytes or <code>null</code> if no pattern was found
+     */
+    private static byte[] naivePatch(final byte[] clazz, final int offset, final int limit, final byte[][] from, final byte[][] to) {
+        int minimum = Integer.MAX_VALUE;
+        for (int j = 1; j < from.length; j++) {
+            minimum = Math.min(minimum, from[j].length);
+        }
+        final ByteArrayOutputStream retVal = new ByteArrayOutputStream();
+        int last = offset, mappingIndex;
+        for (int i = offset; i <= limit - minimum; i++) {
+            for (int j = 1; j < from.length; j++) {
+                if (limit - i < from[j].length) continue;
+                mappingIndex = j;
+                for (int k = 0; k < from[j].length; k++) {
+                    if (clazz[i + k] != from[j][k]) {
+                        mappingIndex = 0;
+                        break;
+                    }
+                }
+                if (mappingIndex != 0) {
+                    retVal.write(clazz, last, i - last);
+                    retVal.write(to[mappingIndex], 0, to[mappingIndex].length);
+                    i += from[j].length;
+                    last = i;
+                }
+            }
+        }
+        if (last == offset) return null;
+        retVal.write(clazz, last, limit - last);
+        return retVal.toByteArray();
+    }
+
+    private static int readUnsignedShort(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF) << 8 | data[offset + 1] & 0xFF;
+    }
+
+    private static byte[] read(final String resourceName) throws IOException {
+        try (InputStream is = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            assertNotNull(resourceName, is);
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, count);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+}
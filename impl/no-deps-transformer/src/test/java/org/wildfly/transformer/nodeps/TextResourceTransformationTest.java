@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.nodeps;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+import org.wildfly.transformer.TextResource;
+import org.wildfly.transformer.Transformer;
+import org.wildfly.transformer.Transformer.Resource;
+
+/**
+ * Tests of manifest and registered text resources transformation.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class TextResourceTransformationTest extends TestCase {
+
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private Transformer t;
+
+    @Override
+    protected void setUp() throws IOException {
+        t = new TransformerFactoryImpl().newTransformer().build();
+    }
+
+    public void testManifestExactPackageNames() throws IOException {
+        final String manifest = "Manifest-Version: 1.0\r\n"
+                + "Export-Package: javax.inject;version=\"1\",javax.inject\r\n"
+                + "Import-Package: org.example,javax.inject,javax.injected\r\n"
+                + "Main-Class: javax.inject.Main\r\n"
+                + "\r\n";
+        final Manifest newManifest = transformManifest(manifest);
+        assertEquals("jakarta.inject;version=\"1\",jakarta.inject", newManifest.getMainAttributes().getValue("Export-Package"));
+        assertEquals("org.example,jakarta.inject,javax.injected", newManifest.getMainAttributes().getValue("Import-Package"));
+        assertEquals("jakarta.inject.Main", newManifest.getMainAttributes().getValue("Main-Class"));
+    }
+
+    public void testManifestContinuationLines() throws IOException {
+        final String manifest = "Manifest-Version: 1.0\r\n"
+                + "Import-Package: com.google.errorprone.annotations,org.example;version=\"1\",javax.inje\r\n"
+                + " ct,org.aopalliance.intercept\r\n"
+                + "Created-By: Apache Maven, value long enough to wrap to continuation l\r\n"
+                + " ine\r\n"
+                + "\r\n"
+                + "Name: javax/servlet/\r\n"
+                + "Implementation-Title: javax.servlet\r\n"
+                + "\r\n";
+        final String newManifest = new String(transform(manifest), StandardCharsets.UTF_8);
+        for (String line : newManifest.split("\r\n")) {
+            assertTrue(line, line.getBytes(StandardCharsets.UTF_8).length <= 72);
+        }
+        assertTrue(newManifest, newManifest.contains("Created-By: Apache Maven, value long enough to wrap to continuation l\r\n ine\r\n"));
+        final Manifest parsedManifest = new Manifest(new ByteArrayInputStream(newManifest.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("com.google.errorprone.annotations,org.example;version=\"1\",jakarta.inject,org.aopalliance.intercept",
+                parsedManifest.getMainAttributes().getValue("Import-Package"));
+        assertNotNull(parsedManifest.getAttributes("jakarta/servlet/"));
+        assertEquals("jakarta.servlet", parsedManifest.getAttributes("jakarta/servlet/").getValue("Implementation-Title"));
+    }
+
+    public void testManifestMultiByteCharactersAreNotSplit() throws IOException {
+        final StringBuilder value = new StringBuilder("javax.inject");
+        for (int i = 0; i < 100; i++) {
+            value.append(",část");
+        }
+        final String manifest = "Manifest-Version: 1.0\r\nExport-Package: " + value + "\r\n\r\n";
+        final Manifest newManifest = transformManifest(manifest);
+        assertEquals(value.toString().replace("javax.inject", "jakarta.inject"), newManifest.getMainAttributes().getValue("Export-Package"));
+    }
+
+    public void testUnchangedManifest() {
+        final String manifest = "Manifest-Version: 1.0\r\nImport-Package: org.example,javax.injected\r\n\r\n";
+        assertNull(t.transform(new Resource(MANIFEST_NAME, manifest.getBytes(StandardCharsets.UTF_8))));
+        assertFalse(t.requiresTransformation(manifest.getBytes(StandardCharsets.UTF_8), 0, manifest.length(), MANIFEST_NAME));
+    }
+
+    public void testRegisteredTextResource() throws IOException {
+        final byte[] text = "handler=javax.servlet.http.HttpServlet\nresource=javax/servlet/resources/web.xml\n".getBytes(StandardCharsets.UTF_8);
+        assertNull(t.transform(new Resource("handlers.conf", text)));
+        assertFalse(t.getTextResources().contains(TextResource.suffix(".conf", TextResource.DOTS)));
+
+        final Transformer customTransformer = new TransformerFactoryImpl().newTransformer()
+                .addTextResource(TextResource.suffix(".conf", TextResource.DOTS))
+                .build();
+        assertNotSame(t, customTransformer);
+        assertEquals(TextResource.suffix(".conf", TextResource.DOTS), customTransformer.getTextResources().get(0));
+        assertTrue(customTransformer.transformsContent("handlers.conf"));
+        assertTrue(customTransformer.requiresTransformation(text, 0, text.length, "handlers.conf"));
+        assertEquals("handler=jakarta.servlet.http.HttpServlet\nresource=javax/servlet/resources/web.xml\n",
+                new String(customTransformer.transform(new Resource("handlers.conf", text)).getData(), StandardCharsets.UTF_8));
+        assertSame(customTransformer, new TransformerFactoryImpl().newTransformer()
+                .addTextResource(TextResource.suffix(".conf", TextResource.DOTS))
+                .build());
+    }
+
+    public void testRegisteredTextResourceOverridesDefault() throws IOException {
+        final byte[] text = "key=javax/servlet/resources/web.xml\n".getBytes(StandardCharsets.UTF_8);
+        assertNotNull(t.transform(new Resource("app.properties", text)));
+        final Transformer customTransformer = new TransformerFactoryImpl().newTransformer()
+                .addTextResource(TextResource.suffix(".properties", TextResource.DOTS))
+                .build();
+        assertNull(customTransformer.transform(new Resource("app.properties", text)));
+    }
+
+    private Manifest transformManifest(final String manifest) throws IOException {
+        return new Manifest(new ByteArrayInputStream(transform(manifest)));
+    }
+
+    private byte[] transform(final String manifest) {
+        final byte[] data = manifest.getBytes(StandardCharsets.UTF_8);
+        assertTrue(t.requiresTransformation(data, 0, data.length, MANIFEST_NAME));
+        final Resource r = t.transform(new Resource(MANIFEST_NAME, data));
+        assertNotNull(r);
+        assertEquals(MANIFEST_NAME, r.getName());
+        return r.getData();
+    }
+
+}
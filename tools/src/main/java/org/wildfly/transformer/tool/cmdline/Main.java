@@ -16,9 +16,14 @@
 package org.wildfly.transformer.tool.cmdline;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
+import org.wildfly.transformer.PackagesMapping;
+import org.wildfly.transformer.Transformer;
 import org.wildfly.transformer.tool.shared.Common;
+import org.wildfly.transformer.tool.shared.TransformationCache;
 
 /**
  * Command line tool for transforming class files or jar files.
@@ -29,25 +34,74 @@ import org.wildfly.transformer.tool.shared.Common;
 public final class Main extends Common {
 
     private static final String PACKAGES_MAPPING_OPTION = "--packages-mapping=";
+    private static final String THREADS_OPTION = "--threads=";
+    private static final String CACHE_DIR_OPTION = "--cache-dir=";
+    private static final String CACHE_SIZE_OPTION = "--cache-size=";
+    private static final long DEFAULT_CACHE_SIZE_MB = 1024;
+    private static final String COMPILE_PACKAGES_MAPPING_OPTION = "--compile-packages-mapping";
 
     public static void main(final String... args) throws IOException {
+        if (args != null && args.length > 0 && COMPILE_PACKAGES_MAPPING_OPTION.equals(args[0])) {
+            if (!validCompileParameters(args)) {
+                printUsage();
+                System.exit(1);
+            }
+            compilePackagesMapping(args[1], new File(args[2]));
+            return;
+        }
         if (!validParameters(args)) {
             printUsage();
             System.exit(1);
         }
 
-        final String packagesMappingFile = args.length == 3 ? args[0].substring(PACKAGES_MAPPING_OPTION.length()) : null;
-        final File sourceFile = new File(args.length == 3 ? args[1] : args[0]);
-        final File targetFile = new File(args.length == 3 ? args[2] : args[1]);
+        String packagesMappingFile = null;
+        int threads = 1;
+        File cacheDir = null;
+        long cacheSizeMB = DEFAULT_CACHE_SIZE_MB;
+        for (int i = 0; i < args.length - 2; i++) {
+            if (args[i].startsWith(PACKAGES_MAPPING_OPTION)) {
+                packagesMappingFile = args[i].substring(PACKAGES_MAPPING_OPTION.length());
+            } else if (args[i].startsWith(THREADS_OPTION)) {
+                threads = Integer.parseInt(args[i].substring(THREADS_OPTION.length()));
+            } else if (args[i].startsWith(CACHE_DIR_OPTION)) {
+                cacheDir = new File(args[i].substring(CACHE_DIR_OPTION.length()));
+            } else if (args[i].startsWith(CACHE_SIZE_OPTION)) {
+                cacheSizeMB = Long.parseLong(args[i].substring(CACHE_SIZE_OPTION.length()));
+            }
+        }
+        final File sourceFile = new File(args[args.length - 2]);
+        final File targetFile = new File(args[args.length - 1]);
+        final Transformer t = newTransformer(packagesMappingFile);
+        final TransformationCache cache = cacheDir != null ? newTransformationCache(cacheDir, cacheSizeMB * 1024 * 1024, t) : null;
         if (sourceFile.getName().endsWith(CLASS_FILE_EXT)) {
-            transformClassFile(sourceFile, targetFile, packagesMappingFile);
-        } else if (sourceFile.getName().endsWith(JAR_FILE_EXT)) {
-            transformJarFile(sourceFile, targetFile, packagesMappingFile);
+            transformClassFile(sourceFile, targetFile, t, cache);
+        } else if (isArchive(sourceFile.getName())) {
+            transformJarFile(sourceFile, targetFile, t, threads, cache);
+        }
+    }
+
+    private static void compilePackagesMapping(final String config, final File targetFile) throws IOException {
+        final PackagesMapping packagesMapping = PackagesMapping.load(config);
+        try (OutputStream os = new FileOutputStream(targetFile)) {
+            packagesMapping.writeTo(os);
         }
     }
 
+    private static boolean validCompileParameters(final String... args) {
+        if (args.length != 3 || args[1] == null || args[2] == null || "".equals(args[1]) || "".equals(args[2])) {
+            System.err.println("Exactly 2 arguments are required after " + COMPILE_PACKAGES_MAPPING_OPTION);
+            return false;
+        }
+        final File targetFile = new File(args[2]);
+        if (targetFile.exists()) {
+            System.err.println("Delete file or directory " + targetFile.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+
     private static boolean validParameters(final String... args) {
-        if (args == null || args.length < 2 || args.length > 3) {
+        if (args == null || args.length < 2 || args.length > 6) {
             System.err.println("At least 2 arguments are required");
             return false;
         }
@@ -61,22 +115,32 @@ public final class Main extends Common {
                 return false;
             }
         }
-        if (args.length == 3) {
-            if (!args[0].startsWith(PACKAGES_MAPPING_OPTION)) {
-                System.err.println("Unknown option: " + args[0]);
+        for (int i = 0; i < args.length - 2; i++) {
+            if (args[i].startsWith(THREADS_OPTION)) {
+                if (!validThreads(args[i].substring(THREADS_OPTION.length()))) {
+                    System.err.println("Threads count must be positive number: " + args[i]);
+                    return false;
+                }
+            } else if (args[i].startsWith(CACHE_SIZE_OPTION)) {
+                if (!validCacheSize(args[i].substring(CACHE_SIZE_OPTION.length()))) {
+                    System.err.println("Cache size must be positive number: " + args[i]);
+                    return false;
+                }
+            } else if (!args[i].startsWith(CACHE_DIR_OPTION) && !args[i].startsWith(PACKAGES_MAPPING_OPTION)) {
+                System.err.println("Unknown option: " + args[i]);
                 return false;
             }
         }
-        final File sourceFile = new File(args.length == 2 ? args[0] : args[1]);
-        if (!sourceFile.getName().endsWith(CLASS_FILE_EXT) && !sourceFile.getName().endsWith(JAR_FILE_EXT)) {
-            System.err.println("Supported file extensions are " + CLASS_FILE_EXT + " or " + JAR_FILE_EXT + " : " + sourceFile.getAbsolutePath());
+        final File sourceFile = new File(args[args.length - 2]);
+        if (!sourceFile.getName().endsWith(CLASS_FILE_EXT) && !isArchive(sourceFile.getName())) {
+            System.err.println("Supported file extensions are " + CLASS_FILE_EXT + ", " + JAR_FILE_EXT + ", " + WAR_FILE_EXT + ", " + EAR_FILE_EXT + " or " + RAR_FILE_EXT + " : " + sourceFile.getAbsolutePath());
             return false;
         }
         if (!sourceFile.exists()) {
             System.err.println("Couldn't find file " + sourceFile.getAbsolutePath());
             return false;
         }
-        final File targetFile = new File(args.length == 2 ? args[1] : args[2]);
+        final File targetFile = new File(args[args.length - 1]);
         if (targetFile.exists()) {
             System.err.println("Delete file or directory " + targetFile.getAbsolutePath());
             return false;
@@ -84,17 +148,48 @@ public final class Main extends Common {
         return true;
     }
 
+    private static boolean validThreads(final String threads) {
+        try {
+            return Integer.parseInt(threads) > 0;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean validCacheSize(final String cacheSize) {
+        try {
+            return Long.parseLong(cacheSize) > 0;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
     private static void printUsage() {
         System.err.println();
-        System.err.println("Usage: " + Main.class.getName() + " [-option] source.class target.class");
+        System.err.println("Usage: " + Main.class.getName() + " [-options] source.class target.class");
         System.err.println("       (to transform a class)");
-        System.err.println("   or  " + Main.class.getName() + " [-option] source.jar target.jar");
-        System.err.println("       (to transform a jar file)");
+        System.err.println("   or  " + Main.class.getName() + " [-options] source.jar target.jar");
+        System.err.println("       (to transform a jar file, war, ear and rar files are supported too)");
+        System.err.println("   or  " + Main.class.getName() + " " + COMPILE_PACKAGES_MAPPING_OPTION + " source.mapping target.bin");
+        System.err.println("       (to compile packages mapping configuration to binary form loaded without validation)");
         System.err.println("");
         System.err.println("Where options include:");
         System.err.println("   " + PACKAGES_MAPPING_OPTION + "<config>");
         System.err.println("              If this parameter is not specified on the command line");
         System.err.println("              default packages mapping configuration will be used");
+        System.err.println("              Both properties and compiled binary configurations are supported");
+        System.err.println("   " + THREADS_OPTION + "<count>");
+        System.err.println("              Count of threads transforming jar file entries and nested archives concurrently");
+        System.err.println("              If this parameter is not specified on the command line");
+        System.err.println("              jar file entries will be transformed by single thread");
+        System.err.println("   " + CACHE_DIR_OPTION + "<directory>");
+        System.err.println("              Directory of persistent transformation cache shared by subsequent runs");
+        System.err.println("              If this parameter is not specified on the command line");
+        System.err.println("              transformation results will not be cached");
+        System.err.println("   " + CACHE_SIZE_OPTION + "<megabytes>");
+        System.err.println("              Maximum size of transformation cache, least recently used results are evicted");
+        System.err.println("              If this parameter is not specified on the command line");
+        System.err.println("              maximum size will be " + DEFAULT_CACHE_SIZE_MB + " megabytes");
         System.err.println("");
         System.err.println("Notes:");
         System.err.println(" * source.class or source.jar must exist");
@@ -17,8 +17,22 @@ package org.wildfly.transformer.tool.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.wildfly.transformer.Transformer;
 import org.wildfly.transformer.tool.shared.Common;
+import org.wildfly.transformer.tool.shared.TransformationCache;
 
 /**
  * HandleTransformation
@@ -28,42 +42,130 @@ import org.wildfly.transformer.tool.shared.Common;
  */
 final class HandleTransformation extends Common {
 
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+
     /**
      * Transform the files contained under the folder path specified.
+     * Single transformer instance is shared by all files. Directory tree is walked by calling thread
+     * while files are transformed by worker threads. Bounded queue of pending files decouples
+     * directory tree walking from transformations, if the queue is full calling thread transforms the file itself.
+     * In incremental mode files which didn't change since previous transformation are skipped.
      * 
      * @param folder represents a filesystem path that contains files/subfolders to be transformed.
+     * @param t transformer to use
+     * @param threads count of threads transforming files
+     * @param cache transformation cache or <code>null</code> if transformation results should not be cached
+     * @param state incremental transformation state or <code>null</code> if all files should be transformed
      */
-    static void transformDirectory(final File folder, final String packagesMappingFile) throws IOException {
-        final File[] files = folder.listFiles();
-        if (files == null) return;
+    static void transformDirectory(final File folder, final Transformer t, final int threads,
+                                   final TransformationCache cache, final IncrementalState state) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Threads count must be positive number");
+        if (!folder.isDirectory()) return;
+        final ThreadPoolExecutor executor = threads > 1 ? new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUE_SIZE_PER_THREAD), new ThreadPoolExecutor.CallerRunsPolicy()) : null;
+        final List<Future<Void>> pendingFiles = new ArrayList<>();
 
-        for (File sourceFile : files) {
-            if (sourceFile.isDirectory()) {
-                transformDirectory(sourceFile, packagesMappingFile);
-            } else if (sourceFile.getName().endsWith(CLASS_FILE_EXT)) {
-                transformClassFile(sourceFile, sourceFile, packagesMappingFile);
-            } else if (sourceFile.getName().endsWith(JAR_FILE_EXT)) {
-                transformJarFile(sourceFile, sourceFile, packagesMappingFile);
+        try {
+            Files.walkFileTree(folder.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    final File sourceFile = file.toFile();
+                    if (!sourceFile.getName().endsWith(CLASS_FILE_EXT) && !isArchive(sourceFile.getName())) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (state != null && state.isUpToDate(sourceFile)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (executor == null) {
+                        transformFile(sourceFile, t, cache, state);
+                    } else {
+                        pendingFiles.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws IOException {
+                                transformFile(sourceFile, t, cache, state);
+                                return null;
+                            }
+                        }));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            for (Future<Void> pendingFile : pendingFiles) {
+                await(pendingFile);
             }
+        } finally {
+            if (executor != null) executor.shutdownNow();
+        }
+    }
+
+    private static void transformFile(final File sourceFile, final Transformer t, final TransformationCache cache, final IncrementalState state) throws IOException {
+        if (sourceFile.getName().endsWith(CLASS_FILE_EXT)) {
+            transformClassFile(sourceFile, sourceFile, t, cache);
+        } else {
+            transformJarFile(sourceFile, sourceFile, t, 1, cache);
         }
+        if (state != null) state.update(sourceFile);
     }
 
-    static void transformFile(final File sourceFile, final File targetFile, final String packagesMappingFile) throws IOException {
+    static void transformFile(final File sourceFile, final File targetFile, final Transformer t, final int threads, final TransformationCache cache) throws IOException {
         if (!sourceFile.exists()) {
             throw new IllegalArgumentException("input file " + sourceFile.getName() + " does not exist");
         }
-        if (!sourceFile.getName().endsWith(CLASS_FILE_EXT) && !sourceFile.getName().endsWith(JAR_FILE_EXT)) {
-            throw new IllegalArgumentException("Supported file extensions are " + CLASS_FILE_EXT + " or " + JAR_FILE_EXT + " : " + sourceFile.getAbsolutePath());
+        if (!sourceFile.getName().endsWith(CLASS_FILE_EXT) && !isArchive(sourceFile.getName())) {
+            throw new IllegalArgumentException("Supported file extensions are " + CLASS_FILE_EXT + ", " + JAR_FILE_EXT + ", " + WAR_FILE_EXT + ", " + EAR_FILE_EXT + " or " + RAR_FILE_EXT + " : " + sourceFile.getAbsolutePath());
         }
         if (!sourceFile.exists()) {
             throw new IllegalArgumentException("Couldn't find file " + sourceFile.getAbsolutePath());
         }
 
         if (sourceFile.getName().endsWith(CLASS_FILE_EXT)) {
-            transformClassFile(sourceFile, targetFile, packagesMappingFile);
-        } else if (sourceFile.getName().endsWith(JAR_FILE_EXT)) {
-            transformJarFile(sourceFile, targetFile, packagesMappingFile);
+            transformClassFile(sourceFile, targetFile, t, cache);
+        } else if (isArchive(sourceFile.getName())) {
+            transformJarFile(sourceFile, targetFile, t, threads, cache);
         }
     }
 
+    /**
+     * Loads incremental transformation state.
+     *
+     * @param stateFile state file
+     * @param t transformer to use
+     * @return incremental transformation state
+     */
+    static IncrementalState loadState(final File stateFile, final Transformer t) throws IOException {
+        return IncrementalState.load(stateFile, transformationFingerprint(t));
+    }
+
+    /**
+     * Creates transformation cache.
+     *
+     * @param directory cache directory or <code>null</code> if transformation results should not be cached
+     * @param maxSize maximum cache directory size in bytes
+     * @param t transformer to use
+     * @return transformation cache or <code>null</code> if cache directory was not specified
+     */
+    static TransformationCache newCache(final File directory, final long maxSize, final Transformer t) throws IOException {
+        return directory != null ? newTransformationCache(directory, maxSize, t) : null;
+    }
+
+    /**
+     * Creates transformer shared by all transformations of the plugin execution.
+     *
+     * @param packagesMappingFile packages mapping configuration file or <code>null</code> for default mapping
+     * @return transformer
+     */
+    static Transformer loadTransformer(final String packagesMappingFile) throws IOException {
+        return newTransformer(packagesMappingFile);
+    }
+
+    /**
+     * Computes hash of file content recorded by incremental transformation state.
+     *
+     * @param file file to hash
+     * @return hexadecimal hash
+     */
+    static String fileHash(final File file) throws IOException {
+        return hash(file);
+    }
+
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * State of incremental transformation. For every transformed file its size, last modification time
+ * and content hash after transformation are recorded. Files with unchanged state don't need to be transformed again.
+ * Whole state is discarded if transformation fingerprint (packages mapping, text resource types and transformer implementation) changes.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class IncrementalState {
+
+    private static final String FINGERPRINT_KEY = "fingerprint";
+
+    private final File stateFile;
+    private final String fingerprint;
+    private final ConcurrentMap<String, String> files = new ConcurrentHashMap<>();
+    private volatile boolean modified;
+
+    private IncrementalState(final File stateFile, final String fingerprint) {
+        this.stateFile = stateFile;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Loads incremental transformation state. If state file doesn't exist or it was created
+     * with different transformation fingerprint empty state is returned.
+     *
+     * @param stateFile state file
+     * @param fingerprint transformation fingerprint
+     * @return incremental transformation state
+     * @throws IOException if some I/O error occurs
+     */
+    static IncrementalState load(final File stateFile, final String fingerprint) throws IOException {
+        final IncrementalState retVal = new IncrementalState(stateFile, fingerprint);
+        if (!stateFile.isFile()) return retVal;
+        final Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(stateFile)) {
+            properties.load(is);
+        }
+        if (!fingerprint.equals(properties.getProperty(FINGERPRINT_KEY))) return retVal;
+        for (String path : properties.stringPropertyNames()) {
+            if (!FINGERPRINT_KEY.equals(path)) retVal.files.put(path, properties.getProperty(path));
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns <code>true</code> if file didn't change since it was recorded. Size and last modification time
+     * are compared first, content hash is compared only if last modification time differs.
+     *
+     * @param file file to check
+     * @return <code>true</code> if file didn't change since it was recorded, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    boolean isUpToDate(final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final String recordedState = files.get(path);
+        if (recordedState == null) return false;
+        final String[] recorded = recordedState.split(",");
+        if (recorded.length != 3 || !recorded[0].equals(String.valueOf(file.length()))) return false;
+        if (recorded[1].equals(String.valueOf(file.lastModified()))) return true;
+        // touched only
+        final String hash = HandleTransformation.fileHash(file);
+        if (!recorded[2].equals(hash)) return false;
+        files.put(path, state(file, hash));
+        return true;
+    }
+
+    /**
+     * Records current file state.
+     *
+     * @param file file to record
+     * @throws IOException if some I/O error occurs
+     */
+    void update(final File file) throws IOException {
+        files.put(file.getAbsolutePath(), state(file, HandleTransformation.fileHash(file)));
+        modified = true;
+    }
+
+    /**
+     * Returns <code>true</code> if some file state was updated since this state was loaded.
+     *
+     * @return <code>true</code> if some file state was updated, <code>false</code> otherwise
+     */
+    boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Stores this state to state file. Records of no longer existing files are removed.
+     *
+     * @throws IOException if some I/O error occurs
+     */
+    void save() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(FINGERPRINT_KEY, fingerprint);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            if (new File(file.getKey()).isFile()) properties.setProperty(file.getKey(), file.getValue());
+        }
+        final File parent = stateFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        final File tmpStateFile = File.createTempFile(stateFile.getName(), ".tmp", parent);
+        try {
+            try (OutputStream os = new FileOutputStream(tmpStateFile)) {
+                properties.store(os, "Transformer incremental state");
+            }
+            Files.move(tmpStateFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmpStateFile.delete();
+        }
+    }
+
+    private static String state(final File file, final String hash) {
+        return file.length() + "," + file.lastModified() + "," + hash;
+    }
+
+}
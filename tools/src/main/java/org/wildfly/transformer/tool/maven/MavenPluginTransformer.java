@@ -21,6 +21,8 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
+import org.wildfly.transformer.Transformer;
+import org.wildfly.transformer.tool.shared.TransformationCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -37,6 +39,8 @@ import java.util.Map;
 @Mojo(name = "package", defaultPhase = LifecyclePhase.PACKAGE)
 public class MavenPluginTransformer extends AbstractMojo {
 
+    private static final String STATE_FILE = "transformer-incremental.state";
+
     @Parameter(defaultValue = "${project.basedir}", readonly = true)
     private File projectRootFolder;
 
@@ -67,6 +71,31 @@ public class MavenPluginTransformer extends AbstractMojo {
     @Parameter(defaultValue = "${packages.mapping.config}", readonly = true)
     private String packagesMapping;
 
+    /**
+     * Count of threads transforming jar file entries and nested archives concurrently.
+     */
+    @Parameter(property = "transformer.threads", defaultValue = "1")
+    private int threads;
+
+    /**
+     * Directory of persistent transformation cache. Transformation results are not cached if not specified.
+     */
+    @Parameter(property = "transformer.cacheDirectory")
+    private File cacheDirectory;
+
+    /**
+     * Maximum size of transformation cache in megabytes.
+     */
+    @Parameter(property = "transformer.cacheSize", defaultValue = "1024")
+    private long cacheSize;
+
+    /**
+     * Incremental mode. Only new or changed files are transformed and the artifact
+     * is transformed only if it changed. State of transformed files is kept in build directory.
+     */
+    @Parameter(property = "transformer.incremental", defaultValue = "false")
+    private boolean incremental;
+
     @Parameter(defaultValue = "${project.compileClasspathElements}", required = true, readonly = true)
     private List<String> compileClasspathElements;
 
@@ -82,11 +111,21 @@ public class MavenPluginTransformer extends AbstractMojo {
 
     public void execute() throws MojoExecutionException {
         dump();
+        final Transformer t;
+        final TransformationCache cache;
+        final IncrementalState state;
+        try {
+            t = HandleTransformation.loadTransformer(packagesMapping);
+            cache = HandleTransformation.newCache(cacheDirectory, cacheSize * 1024 * 1024, t);
+            state = incremental && buildFolder != null ? HandleTransformation.loadState(new File(buildFolder, STATE_FILE), t) : null;
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
 
         if (inputFile != null && outputFile != null) {
             try {
                 System.out.println("transforming specific input " + inputFile.getName() + " into " + outputFile.getName());
-                HandleTransformation.transformFile(inputFile, outputFile, packagesMapping);
+                HandleTransformation.transformFile(inputFile, outputFile, t, threads, cache);
             } catch (IOException e) {
                 throw new MojoExecutionException(e.getMessage(), e);
             }
@@ -103,7 +142,7 @@ public class MavenPluginTransformer extends AbstractMojo {
                 // transform files in output folder
                 try {
                     System.out.println("transforming contents of folder " + outputDirectory);
-                    HandleTransformation.transformDirectory(outputDirectory, packagesMapping);
+                    HandleTransformation.transformDirectory(outputDirectory, t, threads, cache, state);
                 } catch (IOException e) {
                     throw new MojoExecutionException(e.getMessage(), e);
                 }
@@ -120,11 +159,19 @@ public class MavenPluginTransformer extends AbstractMojo {
         } else if (buildFolder != null && targetName != null) {
             inputFile = new File(buildFolder + File.separatorChar + targetName + "." + "jar");
         }
+        try {
+            if (inputFile != null && inputFile.exists() && state != null && !state.isModified() && state.isUpToDate(inputFile)) {
+                System.out.println("skipping unchanged " + inputFile.getName());
+                inputFile = null;
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
         if (inputFile != null && inputFile.exists()) {
             outputFile = new File(inputFile.getName() + ".temp");
             System.out.println("transforming " + inputFile.getName() + " into " + outputFile.getName());
             try {
-                HandleTransformation.transformFile(inputFile, outputFile, packagesMapping);
+                HandleTransformation.transformFile(inputFile, outputFile, t, threads, cache);
                 if (outputFile.exists()) {
                     System.out.println("transformer generated output file " + outputFile.getName() + " " +
                             " outputFile size = " + outputFile.length());
@@ -132,6 +179,7 @@ public class MavenPluginTransformer extends AbstractMojo {
                     inputFile.delete();
                     System.out.println("rename " + outputFile.getName() + " to " + inputFile.getName());
                     outputFile.renameTo(inputFile);
+                    if (state != null && inputFile.isFile()) state.update(inputFile);
                 } else {
                     System.out.println("transformer didn't generate " + outputFile.getName());
                 }
@@ -141,7 +189,13 @@ public class MavenPluginTransformer extends AbstractMojo {
             }
         }
 
-
+        if (state != null) {
+            try {
+                state.save();
+            } catch (IOException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
+        }
     }
 
     private void dump() {
@@ -165,6 +219,10 @@ public class MavenPluginTransformer extends AbstractMojo {
         System.out.println("outputJar =  " + outputFile);
         System.out.println("targetName = " + targetName);
         System.out.println("packagesMapping = " + packagesMapping);
+        System.out.println("threads = " + threads);
+        System.out.println("cacheDirectory = " + cacheDirectory);
+        System.out.println("cacheSize = " + cacheSize);
+        System.out.println("incremental = " + incremental);
     }
 
 }
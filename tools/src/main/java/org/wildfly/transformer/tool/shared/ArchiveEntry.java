@@ -0,0 +1,255 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.wildfly.transformer.Transformer.Resource;
+
+/**
+ * Archive entry ready to be written by {@link ArchiveWriter}.
+ * Entry data are already in their final (compressed or stored) form, either held in memory or in a file.
+ * Central directory attributes (general purpose flags, file attributes, extra fields and comment) of entries
+ * read by {@link ArchiveReader} are preserved when entries are copied or transformed.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ArchiveEntry {
+
+    /**
+     * Stored (no compression) compression method.
+     */
+    static final int STORED = 0;
+    /**
+     * Deflated compression method.
+     */
+    static final int DEFLATED = 8;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    private static final byte[] EMPTY = new byte[0];
+
+    final byte[] name;
+    final int method;
+    final long crc;
+    final long compressedSize;
+    final long size;
+    final int dosTime;
+    /**
+     * File containing raw entry data if they are not held in memory.
+     */
+    final File file;
+    ByteBuffer data;
+    long offset;
+    /**
+     * Version made by, its upper byte identifies the system external attributes are compatible with.
+     */
+    int versionMadeBy;
+    int flags = UTF8_FLAG;
+    int internalAttributes;
+    int externalAttributes;
+    /**
+     * Central directory extra fields except zip64 extended information extra field.
+     */
+    byte[] extra = EMPTY;
+    byte[] comment = EMPTY;
+
+    ArchiveEntry(final byte[] name, final int method, final long crc, final long compressedSize, final long size, final int dosTime, final ByteBuffer data) {
+        this(name, method, crc, compressedSize, size, dosTime, data, null);
+    }
+
+    private ArchiveEntry(final byte[] name, final int method, final long crc, final long compressedSize, final long size, final int dosTime, final ByteBuffer data, final File file) {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.dosTime = dosTime;
+        this.data = data;
+        this.file = file;
+    }
+
+    /**
+     * Creates new entry which (already compressed) data are stored in a file. The file is read once the entry is written.
+     *
+     * @param name entry name
+     * @param method compression method
+     * @param crc CRC-32 of uncompressed entry data
+     * @param size uncompressed entry data size
+     * @param time entry modification time in milliseconds
+     * @param file file containing raw entry data
+     * @return new archive entry
+     */
+    static ArchiveEntry of(final String name, final int method, final long crc, final long size, final long time, final File file) {
+        return new ArchiveEntry(toBytes(name), method, crc, file.length(), size, toDosTime(time), null, file);
+    }
+
+    /**
+     * Creates new entry compressing given content. If compression doesn't reduce the size content is stored.
+     *
+     * @param name entry name
+     * @param content uncompressed entry content
+     * @param time entry modification time in milliseconds
+     * @return new archive entry
+     * @throws IOException if some I/O error occurs
+     */
+    static ArchiveEntry compress(final String name, final byte[] content, final long time) throws IOException {
+        return compress(name, new Resource(name, content), time);
+    }
+
+    /**
+     * Creates new entry compressing given resource content. Content segments are checksummed and deflated one by one,
+     * resource content is materialized only if compression doesn't reduce the size and content is stored.
+     *
+     * @param name entry name
+     * @param content uncompressed entry content
+     * @param time entry modification time in milliseconds
+     * @return new archive entry
+     * @throws IOException if some I/O error occurs
+     */
+    static ArchiveEntry compress(final String name, final Resource content, final long time) throws IOException {
+        final int size = content.getSize();
+        final DeflatingStream deflatingStream = new DeflatingStream(size);
+        try {
+            content.writeTo(deflatingStream);
+            final int length = deflatingStream.finish();
+            if (length < size) {
+                return new ArchiveEntry(toBytes(name), DEFLATED, deflatingStream.crc.getValue(), length, size, toDosTime(time), ByteBuffer.wrap(deflatingStream.buffer, 0, length));
+            }
+        } finally {
+            deflatingStream.deflater.end();
+        }
+        return new ArchiveEntry(toBytes(name), STORED, deflatingStream.crc.getValue(), size, size, toDosTime(time), content.getBuffer());
+    }
+
+    /**
+     * Creates new entry with (already compressed) data having the same name, CRC and sizes as this entry.
+     *
+     * @param data raw entry data
+     * @return new archive entry
+     */
+    ArchiveEntry copy(final ByteBuffer data) {
+        final ArchiveEntry retVal = new ArchiveEntry(name, method, crc, compressedSize, size, dosTime, data).withAttributesOf(this);
+        retVal.flags = flags & ~DATA_DESCRIPTOR_FLAG; // sizes are written in local header
+        return retVal;
+    }
+
+    /**
+     * Creates new entry with given name and (already compressed) data having the same CRC and sizes as this entry.
+     *
+     * @param name new entry name
+     * @param data raw entry data
+     * @return new archive entry
+     */
+    ArchiveEntry copy(final String name, final ByteBuffer data) {
+        final ArchiveEntry retVal = new ArchiveEntry(toBytes(name), method, crc, compressedSize, size, dosTime, data).withAttributesOf(this);
+        retVal.flags = (flags & ~DATA_DESCRIPTOR_FLAG) | UTF8_FLAG;
+        return retVal;
+    }
+
+    /**
+     * Copies central directory attributes of the source entry to this entry. General purpose flags describing
+     * compression of the source entry data are not copied, only the name encoding flag is.
+     *
+     * @param source entry this entry was created from
+     * @return this entry
+     */
+    ArchiveEntry withAttributesOf(final ArchiveEntry source) {
+        versionMadeBy = source.versionMadeBy;
+        flags = Arrays.equals(name, source.name) ? source.flags & UTF8_FLAG : UTF8_FLAG;
+        internalAttributes = source.internalAttributes;
+        externalAttributes = source.externalAttributes;
+        extra = source.extra;
+        comment = source.comment;
+        return this;
+    }
+
+    /**
+     * Gets entry name.
+     *
+     * @return entry name
+     */
+    String getName() {
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toBytes(final String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int toDosTime(final long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Computes CRC and deflates written data into buffer of fixed size. Deflating stops once the buffer is full
+     * because such entry is stored uncompressed anyway.
+     */
+    private static final class DeflatingStream extends OutputStream {
+        private final CRC32 crc = new CRC32();
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final byte[] buffer;
+        private int length;
+
+        private DeflatingStream(final int size) {
+            buffer = new byte[size];
+        }
+
+        @Override
+        public void write(final int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            crc.update(b, off, len);
+            if (length == buffer.length) return; // not compressible
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+        }
+
+        /**
+         * Finishes compression.
+         *
+         * @return compressed data length or buffer length if data don't fit into the buffer
+         */
+        private int finish() {
+            if (length == buffer.length) return length;
+            deflater.finish();
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return deflater.finished() ? length : buffer.length;
+        }
+    }
+
+}
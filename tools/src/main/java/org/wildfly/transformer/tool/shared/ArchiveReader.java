@@ -0,0 +1,373 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Zip archive reader. Unlike {@link java.util.zip.ZipFile} it provides access to raw (compressed) entries data
+ * so they can be copied to another archive without decompression and recompression.
+ * Archives not exceeding 2GB are memory mapped and entries data are exposed as slices of the mapping.
+ * The mapping is not released when the reader is closed but once it is garbage collected, thus entries data slices
+ * stay valid even if they outlive the reader.
+ * Archives prefixed with arbitrary data (e.g. self-executing jars starting with shell script) are supported.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ArchiveReader implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034B50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064B50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064B50;
+    private static final int END_SIGNATURE = 0x06054B50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ENCRYPTED_FLAG = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> INPUT_BUFFERS = new ThreadLocal<>();
+
+    private final FileChannel channel;
+    private final ByteBuffer mapping;
+    private final long size;
+    private final List<ArchiveEntry> entries;
+    /**
+     * Archive entries indexed by their UTF-8 encoded names wrapped to byte buffers.
+     */
+    private final Map<ByteBuffer, ArchiveEntry> entriesByName = new HashMap<>();
+    private byte[] comment;
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    /**
+     * Opens archive and reads its central directory.
+     *
+     * @param file archive to open
+     * @throws IOException if some I/O error occurs or if file is not valid zip archive
+     */
+    ArchiveReader(final File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            size = channel.size();
+            mapping = size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+            entries = Collections.unmodifiableList(readCentralDirectory(entriesByName));
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads central directory of archive held in memory.
+     *
+     * @param archive archive content
+     * @throws IOException if archive is not valid zip archive
+     */
+    ArchiveReader(final ByteBuffer archive) throws IOException {
+        channel = null;
+        mapping = archive.slice();
+        size = mapping.capacity();
+        entries = Collections.unmodifiableList(readCentralDirectory(entriesByName));
+    }
+
+    /**
+     * Gets archive entries in central directory order.
+     *
+     * @return archive entries
+     */
+    List<ArchiveEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets archive comment.
+     *
+     * @return archive comment bytes, empty array if archive has no comment
+     */
+    byte[] getComment() {
+        return comment;
+    }
+
+    /**
+     * Finds archive entry in central directory. If there are more entries with the same name the first one is returned.
+     *
+     * @param name UTF-8 encoded entry name
+     * @return archive entry or <code>null</code> if there is no such entry
+     */
+    ArchiveEntry getEntry(final byte[] name) {
+        return entriesByName.get(ByteBuffer.wrap(name));
+    }
+
+    /**
+     * Gets raw (possibly compressed) entry data. Returned buffer is a slice of archive mapping if archive is mapped.
+     *
+     * @param entry archive entry
+     * @return raw entry data
+     * @throws IOException if some I/O error occurs
+     */
+    ByteBuffer getRawData(final ArchiveEntry entry) throws IOException {
+        final ByteBuffer header = read(entry.offset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) throw new ZipException("Invalid local header of entry " + entry.getName());
+        final long dataOffset = entry.offset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        return read(dataOffset, toInt(entry.compressedSize, entry));
+    }
+
+    /**
+     * Gets uncompressed entry data. Stored entries are not copied, given raw data are returned.
+     * Deflated entries are inflated, see {@link #decompress(ArchiveEntry, ByteBuffer)}.
+     *
+     * @param entry archive entry
+     * @param rawData raw entry data
+     * @return uncompressed entry data
+     * @throws IOException if entry data are corrupted
+     */
+    ByteBuffer getData(final ArchiveEntry entry, final ByteBuffer rawData) throws IOException {
+        if (entry.method != ArchiveEntry.STORED) return ByteBuffer.wrap(decompress(entry, rawData));
+        if (rawData.remaining() != entry.size) throw new ZipException("Invalid size of entry " + entry.getName());
+        return rawData.duplicate();
+    }
+
+    /**
+     * Reads uncompressed entry data. Deflated entries are inflated directly from given raw data.
+     *
+     * @param entry archive entry
+     * @param rawData raw entry data
+     * @return uncompressed entry data
+     * @throws IOException if entry data are corrupted
+     */
+    byte[] decompress(final ArchiveEntry entry, final ByteBuffer rawData) throws IOException {
+        final ByteBuffer input = rawData.duplicate();
+        final byte[] retVal = new byte[toInt(entry.size, entry)];
+        if (entry.method == ArchiveEntry.STORED) {
+            if (input.remaining() != retVal.length) throw new ZipException("Invalid size of entry " + entry.getName());
+            input.get(retVal);
+            return retVal;
+        }
+        if (entry.method != ArchiveEntry.DEFLATED) throw new ZipException("Unsupported compression method " + entry.method + " of entry " + entry.getName());
+        byte[] inputBuffer = INPUT_BUFFERS.get();
+        if (inputBuffer == null) INPUT_BUFFERS.set(inputBuffer = new byte[INPUT_BUFFER_SIZE]);
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) inflater = new Inflater(true);
+        try {
+            int length = 0, count, chunk;
+            while (length < retVal.length) {
+                if (inflater.needsInput()) {
+                    if (!input.hasRemaining()) break;
+                    chunk = Math.min(input.remaining(), inputBuffer.length);
+                    input.get(inputBuffer, 0, chunk);
+                    inflater.setInput(inputBuffer, 0, chunk);
+                }
+                count = inflater.inflate(retVal, length, retVal.length - length);
+                if (count == 0 && (inflater.finished() || inflater.needsDictionary())) break;
+                length += count;
+            }
+            if (length != retVal.length) throw new ZipException("Invalid size of entry " + entry.getName());
+        } catch (final DataFormatException e) {
+            throw new ZipException("Corrupted data of entry " + entry.getName() + ": " + e.getMessage());
+        } finally {
+            release(inflater);
+        }
+        return retVal;
+    }
+
+    /**
+     * Closes archive file and releases native resources of pooled inflaters.
+     *
+     * @throws IOException if some I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+        if (channel != null) channel.close();
+    }
+
+    private void release(final Inflater inflater) {
+        if (closed) {
+            inflater.end();
+            return;
+        }
+        inflater.reset();
+        inflaters.offer(inflater);
+        // pooled inflaters are released by close(), this is the case of concurrent close()
+        if (closed && inflaters.remove(inflater)) inflater.end();
+    }
+
+    private List<ArchiveEntry> readCentralDirectory(final Map<ByteBuffer, ArchiveEntry> entriesByName) throws IOException {
+        final long fileSize = size;
+        if (fileSize < END_SIZE) throw new ZipException("Not a zip archive");
+        // find end of central directory record
+        final int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        final long tailOffset = fileSize - tailSize;
+        final ByteBuffer tail = read(tailOffset, tailSize);
+        int endIndex = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                endIndex = i;
+                break;
+            }
+        }
+        if (endIndex == -1) throw new ZipException("Not a zip archive");
+        final int archiveCommentLength = Math.min(tail.getShort(endIndex + 20) & 0xFFFF, tailSize - endIndex - END_SIZE);
+        comment = new byte[archiveCommentLength];
+        for (int i = 0; i < archiveCommentLength; i++) {
+            comment[i] = tail.get(endIndex + END_SIZE + i);
+        }
+        long entriesCount = tail.getShort(endIndex + 10) & 0xFFFF;
+        long centralDirectorySize = tail.getInt(endIndex + 12) & ZIP64_MAGIC;
+        long centralDirectoryOffset = tail.getInt(endIndex + 16) & ZIP64_MAGIC;
+        // central directory is followed either by zip64 end of central directory record or by end of central directory record
+        long centralDirectoryEnd = tailOffset + endIndex;
+        // zip64 end of central directory record
+        final long locatorOffset = tailOffset + endIndex - ZIP64_LOCATOR_SIZE;
+        if (locatorOffset >= 0) {
+            final ByteBuffer locator = read(locatorOffset, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                // recorded offset is shifted by archive prefix length, zip64 record usually precedes the locator
+                long zip64EndOffset = locatorOffset - ZIP64_END_SIZE;
+                if (zip64EndOffset < 0 || read(zip64EndOffset, 4).getInt(0) != ZIP64_END_SIGNATURE) zip64EndOffset = locator.getLong(8);
+                final ByteBuffer zip64End = read(zip64EndOffset, ZIP64_END_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) throw new ZipException("Invalid zip64 end of central directory record");
+                entriesCount = zip64End.getLong(32);
+                centralDirectorySize = zip64End.getLong(40);
+                centralDirectoryOffset = zip64End.getLong(48);
+                centralDirectoryEnd = zip64EndOffset;
+            }
+        }
+        if (centralDirectorySize > Integer.MAX_VALUE || entriesCount > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory too big");
+        }
+        // length of data preceding the archive, all recorded offsets are relative to the archive start
+        final long prefixLength = centralDirectoryEnd - centralDirectoryOffset - centralDirectorySize;
+        if (prefixLength < 0) throw new ZipException("Invalid central directory offset");
+        // central directory entries
+        final ByteBuffer cd = read(prefixLength + centralDirectoryOffset, (int) centralDirectorySize);
+        final List<ArchiveEntry> retVal = new ArrayList<>((int) entriesCount);
+        int position = 0, nameLength, extraLength, commentLength, flags, extraStart, extraEnd, id, size;
+        long compressedSize, uncompressedSize, offset;
+        byte[] name;
+        ByteBuffer extra;
+        while (position + CENTRAL_HEADER_SIZE <= cd.limit() && cd.getInt(position) == CENTRAL_HEADER_SIGNATURE) {
+            flags = cd.getShort(position + 8) & 0xFFFF;
+            compressedSize = cd.getInt(position + 20) & ZIP64_MAGIC;
+            uncompressedSize = cd.getInt(position + 24) & ZIP64_MAGIC;
+            nameLength = cd.getShort(position + 28) & 0xFFFF;
+            extraLength = cd.getShort(position + 30) & 0xFFFF;
+            commentLength = cd.getShort(position + 32) & 0xFFFF;
+            offset = cd.getInt(position + 42) & ZIP64_MAGIC;
+            name = new byte[nameLength];
+            for (int i = 0; i < nameLength; i++) {
+                name[i] = cd.get(position + CENTRAL_HEADER_SIZE + i);
+            }
+            // zip64 extended information extra field is consumed, other extra fields are preserved
+            extraStart = position + CENTRAL_HEADER_SIZE + nameLength;
+            extraEnd = extraStart + extraLength;
+            extra = ByteBuffer.allocate(extraLength);
+            int i = extraStart;
+            for (; i + 4 <= extraEnd; i += 4 + size) {
+                id = cd.getShort(i) & 0xFFFF;
+                size = Math.min(cd.getShort(i + 2) & 0xFFFF, extraEnd - i - 4);
+                if (id != ZIP64_EXTRA_ID) {
+                    copy(cd, i, i + 4 + size, extra);
+                    continue;
+                }
+                int j = i + 4;
+                if (uncompressedSize == ZIP64_MAGIC) { uncompressedSize = cd.getLong(j); j += 8; }
+                if (compressedSize == ZIP64_MAGIC) { compressedSize = cd.getLong(j); j += 8; }
+                if (offset == ZIP64_MAGIC) { offset = cd.getLong(j); }
+            }
+            copy(cd, i, extraEnd, extra); // malformed trailing data are preserved as they are
+            final ArchiveEntry entry = new ArchiveEntry(name, cd.getShort(position + 10) & 0xFFFF, cd.getInt(position + 16) & ZIP64_MAGIC,
+                    compressedSize, uncompressedSize, cd.getInt(position + 12), null);
+            if ((flags & ENCRYPTED_FLAG) != 0) throw new ZipException("Encrypted entries are not supported: " + entry.getName());
+            entry.offset = prefixLength + offset;
+            entriesByName.putIfAbsent(ByteBuffer.wrap(name), entry);
+            entry.versionMadeBy = cd.getShort(position + 4) & 0xFFFF;
+            entry.flags = flags;
+            entry.internalAttributes = cd.getShort(position + 36) & 0xFFFF;
+            entry.externalAttributes = cd.getInt(position + 38);
+            if (extra.position() > 0) entry.extra = Arrays.copyOf(extra.array(), extra.position());
+            if (commentLength > 0) {
+                entry.comment = new byte[commentLength];
+                copy(cd, extraEnd, extraEnd + commentLength, ByteBuffer.wrap(entry.comment));
+            }
+            retVal.add(entry);
+            position = extraEnd + commentLength;
+        }
+        if (retVal.size() != entriesCount) throw new ZipException("Invalid central directory");
+        return retVal;
+    }
+
+    private ByteBuffer read(final long offset, final int length) throws IOException {
+        if (mapping != null) {
+            if (offset < 0 || offset + length > mapping.capacity()) throw new EOFException();
+            final ByteBuffer retVal = mapping.duplicate();
+            retVal.position((int) offset).limit((int) offset + length);
+            return retVal.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        final ByteBuffer retVal = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        int count;
+        while (retVal.hasRemaining()) {
+            count = channel.read(retVal, offset + retVal.position());
+            if (count < 0) throw new EOFException();
+        }
+        retVal.clear();
+        return retVal;
+    }
+
+    private static void copy(final ByteBuffer source, final int from, final int to, final ByteBuffer target) {
+        for (int i = from; i < to; i++) {
+            target.put(source.get(i));
+        }
+    }
+
+    private static int toInt(final long size, final ArchiveEntry entry) {
+        if (size > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("File " + entry.getName() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+        }
+        return (int) size;
+    }
+
+}
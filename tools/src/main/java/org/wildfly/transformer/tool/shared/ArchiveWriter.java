@@ -0,0 +1,243 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Zip archive writer. Unlike {@link java.util.zip.ZipOutputStream} it writes entries
+ * which content was already compressed (possibly by other threads or copied from another archive).
+ * Central directory attributes of entries and archive comment are written as they were read by {@link ArchiveReader}.
+ * Instances of this class are not thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ArchiveWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034B50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064B50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064B50;
+    private static final int END_SIGNATURE = 0x06054B50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream os;
+    private final List<ArchiveEntry> entries = new ArrayList<>();
+    private final byte[] header = new byte[128];
+    private final byte[] transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+    private byte[] comment = new byte[0];
+    private long position;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param os stream to write archive to. It will be closed when this writer is closed
+     */
+    ArchiveWriter(final OutputStream os) {
+        this.os = new BufferedOutputStream(os, TRANSFER_BUFFER_SIZE);
+    }
+
+    /**
+     * Sets archive comment written at the end of the archive.
+     *
+     * @param comment archive comment bytes
+     */
+    void setComment(final byte[] comment) {
+        if (comment.length > 0xFFFF) throw new IllegalArgumentException("Archive comment too long");
+        this.comment = comment;
+    }
+
+    /**
+     * Writes entry local header and its data. Entry data are released once written.
+     * Entry data stored in a file are copied in chunks.
+     *
+     * @param entry entry to write
+     * @throws IOException if some I/O error occurs
+     */
+    void write(final ArchiveEntry entry) throws IOException {
+        if (closed) throw new IllegalStateException("Archive writer closed");
+        entry.offset = position;
+        int i = 0;
+        i = putInt(header, i, LOCAL_HEADER_SIGNATURE);
+        i = putShort(header, i, VERSION);
+        i = putShort(header, i, entry.flags);
+        i = putShort(header, i, entry.method);
+        i = putInt(header, i, entry.dosTime);
+        i = putInt(header, i, (int) entry.crc);
+        i = putInt(header, i, (int) entry.compressedSize);
+        i = putInt(header, i, (int) entry.size);
+        i = putShort(header, i, entry.name.length);
+        i = putShort(header, i, 0);
+        os.write(header, 0, i);
+        os.write(entry.name);
+        if (entry.file != null) {
+            write(entry.file, entry.compressedSize);
+        } else {
+            write(entry.data);
+        }
+        position += i + entry.name.length + entry.compressedSize;
+        entry.data = null;
+        entries.add(entry);
+    }
+
+    /**
+     * Writes archive central directory and closes underlying stream.
+     *
+     * @throws IOException if some I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            final long centralDirectoryOffset = position;
+            int i;
+            boolean zip64;
+            byte[] extra;
+            for (ArchiveEntry entry : entries) {
+                zip64 = entry.offset >= ZIP64_MAGIC;
+                extra = entry.extra.length + (zip64 ? 12 : 0) <= 0xFFFF ? entry.extra : new byte[0];
+                i = 0;
+                i = putInt(header, i, CENTRAL_HEADER_SIGNATURE);
+                i = putShort(header, i, (entry.versionMadeBy & 0xFF00) | (zip64 ? ZIP64_VERSION : VERSION));
+                i = putShort(header, i, zip64 ? ZIP64_VERSION : VERSION);
+                i = putShort(header, i, entry.flags);
+                i = putShort(header, i, entry.method);
+                i = putInt(header, i, entry.dosTime);
+                i = putInt(header, i, (int) entry.crc);
+                i = putInt(header, i, (int) entry.compressedSize);
+                i = putInt(header, i, (int) entry.size);
+                i = putShort(header, i, entry.name.length);
+                i = putShort(header, i, extra.length + (zip64 ? 12 : 0));
+                i = putShort(header, i, entry.comment.length);
+                i = putShort(header, i, 0); // disk number
+                i = putShort(header, i, entry.internalAttributes);
+                i = putInt(header, i, entry.externalAttributes);
+                i = putInt(header, i, zip64 ? (int) ZIP64_MAGIC : (int) entry.offset);
+                os.write(header, 0, i);
+                position += i;
+                os.write(entry.name);
+                position += entry.name.length;
+                if (zip64) {
+                    i = 0;
+                    i = putShort(header, i, ZIP64_EXTRA_ID);
+                    i = putShort(header, i, 8);
+                    i = putLong(header, i, entry.offset);
+                    os.write(header, 0, i);
+                    position += i;
+                }
+                os.write(extra);
+                os.write(entry.comment);
+                position += extra.length + entry.comment.length;
+            }
+            final long centralDirectorySize = position - centralDirectoryOffset;
+            zip64 = entries.size() >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+            if (zip64) {
+                final long zip64EndOffset = position;
+                i = 0;
+                i = putInt(header, i, ZIP64_END_SIGNATURE);
+                i = putLong(header, i, 44);
+                i = putShort(header, i, ZIP64_VERSION);
+                i = putShort(header, i, ZIP64_VERSION);
+                i = putInt(header, i, 0);
+                i = putInt(header, i, 0);
+                i = putLong(header, i, entries.size());
+                i = putLong(header, i, entries.size());
+                i = putLong(header, i, centralDirectorySize);
+                i = putLong(header, i, centralDirectoryOffset);
+                i = putInt(header, i, ZIP64_LOCATOR_SIGNATURE);
+                i = putInt(header, i, 0);
+                i = putLong(header, i, zip64EndOffset);
+                i = putInt(header, i, 1);
+                os.write(header, 0, i);
+            }
+            i = 0;
+            i = putInt(header, i, END_SIGNATURE);
+            i = putShort(header, i, 0);
+            i = putShort(header, i, 0);
+            i = putShort(header, i, zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+            i = putShort(header, i, zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+            i = putInt(header, i, zip64 ? (int) ZIP64_MAGIC : (int) centralDirectorySize);
+            i = putInt(header, i, zip64 ? (int) ZIP64_MAGIC : (int) centralDirectoryOffset);
+            i = putShort(header, i, comment.length);
+            os.write(header, 0, i);
+            os.write(comment);
+            os.flush();
+        } finally {
+            os.close();
+        }
+    }
+
+    private void write(final File file, final long length) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            long remaining = length;
+            int count;
+            while (remaining > 0) {
+                count = is.read(transferBuffer, 0, (int) Math.min(remaining, transferBuffer.length));
+                if (count == -1) throw new EOFException("Unexpected end of file " + file);
+                os.write(transferBuffer, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    private void write(final ByteBuffer data) throws IOException {
+        if (data.hasArray()) {
+            os.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+        final ByteBuffer source = data.duplicate();
+        int chunk;
+        while (source.hasRemaining()) {
+            chunk = Math.min(source.remaining(), transferBuffer.length);
+            source.get(transferBuffer, 0, chunk);
+            os.write(transferBuffer, 0, chunk);
+        }
+    }
+
+    private static int putShort(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        return offset + 2;
+    }
+
+    private static int putInt(final byte[] buffer, final int offset, final int value) {
+        putShort(buffer, offset, value);
+        return putShort(buffer, offset + 2, value >>> 16);
+    }
+
+    private static int putLong(final byte[] buffer, final int offset, final long value) {
+        putInt(buffer, offset, (int) value);
+        return putInt(buffer, offset + 4, (int) (value >>> 32));
+    }
+
+}
@@ -15,19 +15,33 @@
  */
 package org.wildfly.transformer.tool.shared;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.IOException;
-import java.util.Calendar;
-import java.util.Enumeration;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
+import org.wildfly.transformer.PackagesMapping;
 import org.wildfly.transformer.Transformer;
 import org.wildfly.transformer.Transformer.Resource;
 import org.wildfly.transformer.TransformerBuilder;
@@ -43,65 +57,539 @@ public abstract class Common {
 
     protected static final String CLASS_FILE_EXT = ".class";
     protected static final String JAR_FILE_EXT = ".jar";
+    protected static final String WAR_FILE_EXT = ".war";
+    protected static final String EAR_FILE_EXT = ".ear";
+    protected static final String RAR_FILE_EXT = ".rar";
+    private static final long MAX_IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] EMPTY = new byte[0];
 
     protected static void transformClassFile(final File inClassFile, final File outClassFile, final String packagesMappingFile) throws IOException {
+        transformClassFile(inClassFile, outClassFile, newTransformer(packagesMappingFile));
+    }
+
+    /**
+     * Transforms class file. If class file is transformed in place and no transformation is needed it is left untouched.
+     *
+     * @param inClassFile class file to transform
+     * @param outClassFile transformed class file
+     * @param t transformer to use
+     * @throws IOException if some I/O error occurs
+     */
+    protected static void transformClassFile(final File inClassFile, final File outClassFile, final Transformer t) throws IOException {
+        transformClassFile(inClassFile, outClassFile, t, null);
+    }
+
+    /**
+     * Transforms class file consulting transformation cache first.
+     * If class file is transformed in place and no transformation is needed it is left untouched.
+     *
+     * @param inClassFile class file to transform
+     * @param outClassFile transformed class file
+     * @param t transformer to use
+     * @param cache transformation cache or <code>null</code> if transformation results should not be cached
+     * @throws IOException if some I/O error occurs
+     */
+    protected static void transformClassFile(final File inClassFile, final File outClassFile, final Transformer t, final TransformationCache cache) throws IOException {
         if (inClassFile.length() > Integer.MAX_VALUE) {
             throw new UnsupportedOperationException("File " + inClassFile.getAbsolutePath() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
         }
-        final Transformer t = newTransformer(packagesMappingFile);
         byte[] clazz = new byte[(int)inClassFile.length()];
         readBytes(new FileInputStream(inClassFile), clazz, true);
+        String key = null;
+        if (cache != null) {
+            key = cache.key(clazz);
+            final byte[] cachedClazz = cache.isUnchanged(key) ? clazz : cache.get(key);
+            if (cachedClazz != null) {
+                if (cachedClazz != clazz || !inClassFile.equals(outClassFile)) {
+                    writeBytes(new FileOutputStream(outClassFile), cachedClazz, true);
+                }
+                return;
+            }
+        }
         final Resource newResource = t.transform(new Resource(inClassFile.getName(), clazz));
-        clazz = newResource != null ? newResource.getData() : clazz;
-        writeBytes(new FileOutputStream(outClassFile), clazz, true);
+        if (cache != null) {
+            if (newResource == null) {
+                cache.putUnchanged(key);
+            } else {
+                cache.put(key, newResource.getData());
+            }
+        }
+        if (newResource == null && inClassFile.equals(outClassFile)) {
+            return; // nothing to write
+        }
+        writeResource(new FileOutputStream(outClassFile), newResource != null ? newResource : new Resource(inClassFile.getName(), clazz));
+    }
+
+    /**
+     * Returns <code>true</code> if file name denotes jar, war, ear or rar archive.
+     *
+     * @param fileName file name
+     * @return <code>true</code> if file name denotes archive, <code>false</code> otherwise
+     */
+    protected static boolean isArchive(final String fileName) {
+        return fileName.endsWith(JAR_FILE_EXT) || fileName.endsWith(WAR_FILE_EXT) || fileName.endsWith(EAR_FILE_EXT) || fileName.endsWith(RAR_FILE_EXT);
     }
 
     protected static void transformJarFile(final File inJarFile, final File outJarFile, final String packagesMappingFile) throws IOException {
-        final Transformer t = newTransformer(packagesMappingFile);
-        final Calendar calendar = Calendar.getInstance();
-        JarFile jar = null;
-        JarOutputStream jarOutputStream = null;
-        JarEntry inJarEntry, outJarEntry;
-        byte[] buffer;
-        Resource oldResource, newResource;
+        transformJarFile(inJarFile, outJarFile, packagesMappingFile, 1);
+    }
+
+    /**
+     * Transforms jar file. If <code>threads</code> count is greater than <code>one</code> jar file entries and nested archives
+     * are read, transformed and compressed concurrently by the same worker threads while the calling thread
+     * writes them to the output jar file in their original order.
+     * Entries with unmodified content are copied to the output jar file without recompression.
+     * Nested archives are transformed recursively, identical nested archives are transformed only once.
+     *
+     * @param inJarFile jar file to transform
+     * @param outJarFile transformed jar file
+     * @param packagesMappingFile packages mapping configuration file or <code>null</code> for default mapping
+     * @param threads count of worker threads
+     * @throws IOException if some I/O error occurs
+     */
+    protected static void transformJarFile(final File inJarFile, final File outJarFile, final String packagesMappingFile, final int threads) throws IOException {
+        transformJarFile(inJarFile, outJarFile, newTransformer(packagesMappingFile), threads);
+    }
+
+    /**
+     * Transforms jar file using given transformer.
+     *
+     * @param inJarFile jar file to transform
+     * @param outJarFile transformed jar file
+     * @param t transformer to use
+     * @param threads count of worker threads
+     * @throws IOException if some I/O error occurs
+     * @see #transformJarFile(File, File, String, int)
+     */
+    protected static void transformJarFile(final File inJarFile, final File outJarFile, final Transformer t, final int threads) throws IOException {
+        transformJarFile(inJarFile, outJarFile, t, threads, null);
+    }
+
+    /**
+     * Transforms jar file using given transformer consulting transformation cache first.
+     * If transformation result is cached the jar file transformation is reduced to hashing jar file and copying cached result.
+     *
+     * @param inJarFile jar file to transform
+     * @param outJarFile transformed jar file
+     * @param t transformer to use
+     * @param threads count of worker threads
+     * @param cache transformation cache or <code>null</code> if transformation results should not be cached
+     * @throws IOException if some I/O error occurs
+     * @see #transformJarFile(File, File, String, int)
+     */
+    protected static void transformJarFile(final File inJarFile, final File outJarFile, final Transformer t, final int threads, final TransformationCache cache) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Threads count must be positive number");
+        if (cache == null) {
+            transformArchive(inJarFile, outJarFile, t, threads);
+            return;
+        }
+        final String key = cache.key(inJarFile);
+        if (cache.isUnchanged(key)) {
+            if (!inJarFile.getCanonicalFile().equals(outJarFile.getCanonicalFile())) {
+                Files.copy(inJarFile.toPath(), outJarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+        if (cache.copyTo(key, outJarFile)) return;
+        if (transformArchive(inJarFile, outJarFile, t, threads)) {
+            cache.put(key, outJarFile);
+        } else {
+            cache.putUnchanged(key);
+        }
+    }
+
+    private static boolean transformArchive(final File inJarFile, final File outJarFile, final Transformer t, final int threads) throws IOException {
+        final TransformationStamp stamp = TransformationStamp.of(t);
+        final long time = System.currentTimeMillis();
+        boolean modified;
+        // input jar file is memory mapped, in place transformation must write to temporary file first
+        final boolean inPlace = inJarFile.getCanonicalFile().equals(outJarFile.getCanonicalFile());
+        File tmpJarFile = null;
+        ExecutorService executor = null;
+        NestedArchives nestedArchives = null;
+        ArchiveReader archiveReader = null;
+        ArchiveWriter archiveWriter = null;
+        boolean success = false;
 
         try {
-            jar = new JarFile(inJarFile);
-            jarOutputStream = new JarOutputStream(new FileOutputStream(outJarFile));
+            archiveReader = new ArchiveReader(inJarFile);
+            if (stamp != null && stamp.matches(archiveReader)) {
+                // already transformed by equivalent transformer
+                archiveReader.close();
+                if (!inPlace) Files.copy(inJarFile.toPath(), outJarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return false;
+            }
+            if (inPlace) tmpJarFile = File.createTempFile(outJarFile.getName(), ".tmp", outJarFile.getAbsoluteFile().getParentFile());
+            archiveWriter = new ArchiveWriter(new FileOutputStream(inPlace ? tmpJarFile : outJarFile));
+            if (threads > 1) {
+                executor = Executors.newFixedThreadPool(threads);
+            }
+            nestedArchives = new NestedArchives(t, executor);
+            modified = transformArchive(archiveReader, archiveWriter, t, executor, nestedArchives, time);
+            archiveWriter.close();
+            success = true;
+        } finally {
+            // worker threads are stopped before the archive is closed
+            if (executor != null) shutdown(executor);
+            safeClose(archiveReader);
+            safeClose(archiveWriter);
+            safeClose(nestedArchives);
+            if (tmpJarFile != null && !success) tmpJarFile.delete();
+        }
+        if (inPlace) {
+            Files.move(tmpJarFile.toPath(), outJarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return modified;
+    }
+
+    /**
+     * Transforms archive entries and writes them in their original order. Stale stamp is replaced with current one.
+     * Archive comment and central directory attributes of entries are preserved.
+     * Neither archive reader nor archive writer is closed by this method.
+     *
+     * @param archiveReader archive to transform
+     * @param archiveWriter transformed archive
+     * @param t transformer to use
+     * @param executor worker threads transforming entries or <code>null</code> if entries are transformed by the calling thread
+     * @param nestedArchives nested archives transformer
+     * @param time modification time of transformed entries in milliseconds
+     * @return <code>true</code> if some entry was transformed, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    static boolean transformArchive(final ArchiveReader archiveReader, final ArchiveWriter archiveWriter, final Transformer t,
+                                    final ExecutorService executor, final NestedArchives nestedArchives, final long time) throws IOException {
+        final TransformationStamp stamp = nestedArchives.getStamp();
+        final Deque<Future<TransformedEntry>> pendingEntries = new ArrayDeque<>();
+        final Deque<ArchiveEntry> pendingInputs = new ArrayDeque<>();
+        long pendingBytes = 0;
+        boolean modified = false;
 
-            for (final Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+        archiveWriter.setComment(archiveReader.getComment());
+        try (NestedArchives.Prefetch prefetchedArchives = nestedArchives.prefetch(archiveReader)) {
+            for (final ArchiveEntry inJarEntry : archiveReader.getEntries()) {
                 // jar file entry preconditions
-                inJarEntry = e.nextElement();
-                if (inJarEntry.getSize() == 0) {
-                    continue; // directories
+                if (inJarEntry.size > Integer.MAX_VALUE || inJarEntry.compressedSize > Integer.MAX_VALUE) {
+                    throw new UnsupportedOperationException("File " + inJarEntry.getName() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
                 }
-                if (inJarEntry.getSize() < 0) {
-                    throw new UnsupportedOperationException("File size " + inJarEntry.getName() + " unknown! File size must be positive number");
+                if (TransformationStamp.isStamp(inJarEntry.name)) {
+                    modified = true; // stale stamp, replaced with current one
+                    continue;
                 }
-                if (inJarEntry.getSize() > Integer.MAX_VALUE) {
-                    throw new UnsupportedOperationException("File " + inJarEntry.getName() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+                if (executor == null) {
+                    modified |= write(archiveWriter, transformJarEntry(archiveReader, inJarEntry, t, prefetchedArchives, time));
+                    continue;
                 }
-                // reading original jar file entry
-                buffer = new byte[(int) inJarEntry.getSize()];
-                readBytes(jar.getInputStream(inJarEntry), buffer, true);
-                oldResource = new Resource(inJarEntry.getName(), buffer);
-                // transform resource
-                newResource = t.transform(oldResource);
-                if (newResource == null) {
-                    newResource = oldResource;
+                // keep bounded count of bytes in flight, write finished entries in original order
+                while (!pendingEntries.isEmpty() && pendingBytes + inJarEntry.size > MAX_IN_FLIGHT_BYTES) {
+                    final ArchiveEntry pendingInput = pendingInputs.removeFirst();
+                    modified |= write(archiveWriter, await(pendingEntries.removeFirst()));
+                    pendingBytes -= pendingInput.size;
                 }
-                // writing potentially modified jar file entry
-                outJarEntry = new JarEntry(newResource.getName());
-                outJarEntry.setSize(newResource.getData().length);
-                outJarEntry.setTime(calendar.getTimeInMillis());
-                jarOutputStream.putNextEntry(outJarEntry);
-                writeBytes(jarOutputStream, newResource.getData(), false);
-                jarOutputStream.closeEntry();
+                pendingEntries.addLast(executor.submit(newTransformTask(archiveReader, inJarEntry, t, prefetchedArchives, time)));
+                pendingInputs.addLast(inJarEntry);
+                pendingBytes += inJarEntry.size;
             }
+            while (!pendingEntries.isEmpty()) {
+                modified |= write(archiveWriter, await(pendingEntries.removeFirst()));
+            }
+        }
+        if (modified && stamp != null) {
+            archiveWriter.write(ArchiveEntry.compress(TransformationStamp.NAME, stamp.getContent(), time));
+        }
+        return modified;
+    }
+
+    /**
+     * Detects whether jar archive needs to be transformed without transforming it.
+     * Archive already stamped by equivalent transformer is not inspected. Otherwise entries (including entries
+     * of nested archives) are inspected till the first entry needing transformation is found. Only classes,
+     * text resources and nested archives are inflated, other entries are checked by their names only
+     * (see {@link Transformer#transformsContent(String)}).
+     *
+     * @param jarFile jar archive to inspect
+     * @param t transformer to use
+     * @return <code>true</code> if archive transformation is needed, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     * @see Transformer#requiresTransformation(byte[], int, int, String)
+     */
+    public static boolean requiresTransformation(final File jarFile, final Transformer t) throws IOException {
+        if (jarFile == null || t == null) throw new NullPointerException();
+        try (ArchiveReader archiveReader = new ArchiveReader(jarFile)) {
+            return requiresTransformation(archiveReader, t, TransformationStamp.of(t));
+        }
+    }
+
+    private static boolean requiresTransformation(final ArchiveReader archiveReader, final Transformer t, final TransformationStamp stamp) throws IOException {
+        if (stamp != null && stamp.matches(archiveReader)) return false;
+        byte[] data;
+        String name;
+        for (final ArchiveEntry entry : archiveReader.getEntries()) {
+            if (TransformationStamp.isStamp(entry.name)) return true; // stale stamp
+            name = entry.getName();
+            if (!isArchive(name) && !t.transformsContent(name)) {
+                if (!name.equals(rename(t, name))) return true;
+                continue;
+            }
+            data = archiveReader.decompress(entry, archiveReader.getRawData(entry));
+            if (t.requiresTransformation(data, 0, data.length, name)) return true;
+            if (isArchive(name) && requiresTransformation(data, t, stamp)) return true;
+        }
+        return false;
+    }
+
+    private static boolean requiresTransformation(final byte[] nestedArchive, final Transformer t, final TransformationStamp stamp) throws IOException {
+        final ArchiveReader archiveReader;
+        try {
+            archiveReader = new ArchiveReader(ByteBuffer.wrap(nestedArchive));
+        } catch (final IOException | RuntimeException e) {
+            // malformed central directory, nested archives are transformed as streams
+            return t.requiresTransformation(new ZipInputStream(new ByteArrayInputStream(nestedArchive)));
+        }
+        try {
+            return requiresTransformation(archiveReader, t, stamp);
         } finally {
-            safeClose(jar);
-            safeClose(jarOutputStream);
+            archiveReader.close();
+        }
+    }
+
+    private static boolean write(final ArchiveWriter archiveWriter, final TransformedEntry transformedEntry) throws IOException {
+        archiveWriter.write(transformedEntry.entry);
+        return transformedEntry.modified;
+    }
+
+    /**
+     * Transforms jar archive read from input stream and writes transformed jar archive to output stream.
+     * Archive entries don't need to declare their sizes. Entries which content cannot be transformed
+     * (see {@link Transformer#transformsContent(String)}) are possibly renamed and their content is copied
+     * in chunks through fixed size buffer. Other entries are collected in a reusable buffer and passed to the transformer
+     * without copying, buffer grown for an entry exceeding its size is released once the entry is written.
+     * Nested archives are transformed recursively, identical nested archives are transformed only once.
+     * Neither input nor output stream is closed by this method.
+     *
+     * @param in stream to read jar archive from
+     * @param out stream to write transformed jar archive to
+     * @param t transformer to use
+     * @throws IOException if some I/O error occurs
+     * @throws UnsupportedOperationException if entry to transform exceeds maximum array size
+     */
+    public static void transformJarStream(final InputStream in, final OutputStream out, final Transformer t) throws IOException {
+        if (in == null || out == null || t == null) throw new NullPointerException();
+        try (NestedArchives nestedArchives = new NestedArchives(t, null)) {
+            transformJarStream(in, out, t, nestedArchives);
+        }
+    }
+
+    /**
+     * Transforms jar archive read from input stream and writes transformed jar archive to output stream.
+     *
+     * @param in stream to read jar archive from
+     * @param out stream to write transformed jar archive to
+     * @param t transformer to use
+     * @param nestedArchives nested archives transformer
+     * @return <code>true</code> if some entry was transformed, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    static boolean transformJarStream(final InputStream in, final OutputStream out, final Transformer t, final NestedArchives nestedArchives) throws IOException {
+        final ZipInputStream zipInputStream = new ZipInputStream(in);
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(out);
+        final byte[] chunk = new byte[STREAM_BUFFER_SIZE];
+        byte[] buffer;
+        ZipEntry inEntry, outEntry;
+        final TransformationStamp stamp = nestedArchives.getStamp();
+        NestedArchives.TransformedArchive transformedArchive;
+        Resource oldResource, newResource;
+        String name, newName;
+        int length, count;
+        long time, lastTime = System.currentTimeMillis();
+        boolean modified = false, stamped = false;
+
+        while ((inEntry = zipInputStream.getNextEntry()) != null) {
+            name = inEntry.getName();
+            time = inEntry.getTime() != -1 ? inEntry.getTime() : System.currentTimeMillis();
+            lastTime = time;
+            if (!isArchive(name) && !TransformationStamp.NAME.equals(name) && !t.transformsContent(name)) {
+                // content is not transformed, entry can only be renamed, copy content in chunks
+                newName = rename(t, name);
+                if (!name.equals(newName)) {
+                    name = newName;
+                    modified = true;
+                }
+                outEntry = new ZipEntry(name);
+                outEntry.setTime(time);
+                zipOutputStream.putNextEntry(outEntry);
+                while ((count = zipInputStream.read(chunk)) != -1) {
+                    zipOutputStream.write(chunk, 0, count);
+                }
+                zipOutputStream.closeEntry();
+                continue;
+            }
+            // reading original jar file entry into buffer, buffer grown for previous entry is not kept
+            buffer = chunk;
+            length = 0;
+            while (true) {
+                if (length == buffer.length) {
+                    if (buffer.length == MAX_ARRAY_SIZE) {
+                        throw new UnsupportedOperationException("File " + name + " too big! Maximum allowed file size is " + MAX_ARRAY_SIZE + " bytes");
+                    }
+                    buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length << 1, MAX_ARRAY_SIZE));
+                }
+                count = zipInputStream.read(buffer, length, buffer.length - length);
+                if (count == -1) break;
+                length += count;
+            }
+            if (isArchive(name)) {
+                // transform nested archive, it can be renamed too
+                transformedArchive = nestedArchives.transform(ByteBuffer.wrap(buffer, 0, length), ArchiveEntry.STORED);
+                newName = rename(t, name);
+                modified |= transformedArchive != null || !name.equals(newName);
+                outEntry = new ZipEntry(newName);
+                outEntry.setTime(time);
+                zipOutputStream.putNextEntry(outEntry);
+                if (transformedArchive != null) {
+                    transformedArchive.writeTo(zipOutputStream);
+                } else {
+                    zipOutputStream.write(buffer, 0, length);
+                }
+                zipOutputStream.closeEntry();
+                continue;
+            }
+            if (!TransformationStamp.NAME.equals(name) && !t.requiresTransformation(buffer, 0, length, name)) {
+                // nothing to transform, write buffered content
+                outEntry = new ZipEntry(name);
+                outEntry.setTime(time);
+                zipOutputStream.putNextEntry(outEntry);
+                zipOutputStream.write(buffer, 0, length);
+                zipOutputStream.closeEntry();
+                continue;
+            }
+            if (stamp != null && TransformationStamp.NAME.equals(name)) {
+                if (!stamp.matches(ByteBuffer.wrap(buffer, 0, length))) {
+                    modified = true; // stale stamp, replaced with current one
+                    continue;
+                }
+                stamped = true;
+            }
+            // transform resource
+            oldResource = new Resource(name, buffer, 0, length);
+            newResource = t.transform(oldResource);
+            if (newResource == null) {
+                newResource = oldResource;
+            } else {
+                modified = true;
+            }
+            // writing potentially modified jar file entry
+            outEntry = new ZipEntry(newResource.getName());
+            outEntry.setTime(time);
+            zipOutputStream.putNextEntry(outEntry);
+            newResource.writeTo(zipOutputStream);
+            zipOutputStream.closeEntry();
+        }
+        if (modified && stamp != null && !stamped) {
+            outEntry = new ZipEntry(TransformationStamp.NAME);
+            outEntry.setTime(lastTime);
+            zipOutputStream.putNextEntry(outEntry);
+            zipOutputStream.write(stamp.getContent());
+            zipOutputStream.closeEntry();
         }
+        zipOutputStream.finish();
+        zipOutputStream.flush();
+        return modified;
+    }
+
+    private static Callable<TransformedEntry> newTransformTask(final ArchiveReader archiveReader, final ArchiveEntry inJarEntry,
+                                                               final Transformer t, final NestedArchives.Prefetch nestedArchives, final long time) {
+        return new Callable<TransformedEntry>() {
+            @Override
+            public TransformedEntry call() throws IOException {
+                return transformJarEntry(archiveReader, inJarEntry, t, nestedArchives, time);
+            }
+        };
+    }
+
+    private static TransformedEntry transformJarEntry(final ArchiveReader archiveReader, final ArchiveEntry inJarEntry,
+                                                      final Transformer t, final NestedArchives.Prefetch nestedArchives, final long time) throws IOException {
+        // reading original jar file entry
+        final ByteBuffer rawData = archiveReader.getRawData(inJarEntry);
+        final String name = inJarEntry.getName();
+        if (isArchive(name)) {
+            // transform nested archive preserving its compression method, it can be renamed too
+            final NestedArchives.TransformedArchive transformedArchive = nestedArchives.transform(inJarEntry);
+            final String newName = rename(t, name);
+            if (transformedArchive != null) return modified(transformedArchive.toEntry(newName, time).withAttributesOf(inJarEntry));
+            return name.equals(newName) ? unmodified(inJarEntry.copy(rawData)) : modified(inJarEntry.copy(newName, rawData));
+        }
+        if (!t.transformsContent(name)) {
+            // content is not transformed, entry can only be renamed, copy original compressed content
+            final String newName = rename(t, name);
+            return name.equals(newName) ? unmodified(inJarEntry.copy(rawData)) : modified(inJarEntry.copy(newName, rawData));
+        }
+        // stored entries are not copied, transformer reads them directly from the archive mapping
+        final ByteBuffer data = archiveReader.getData(inJarEntry, rawData);
+        if (data.hasArray() && !t.requiresTransformation(data.array(), data.arrayOffset() + data.position(), data.remaining(), name)) {
+            return unmodified(inJarEntry.copy(rawData)); // nothing to transform, copy original compressed content
+        }
+        // transform resource
+        final Resource newResource = t.transform(new Resource(name, data));
+        if (newResource == null) {
+            return unmodified(inJarEntry.copy(rawData)); // copy original compressed content if not modified
+        }
+        final boolean renamed = !name.equals(newResource.getName());
+        if (ContentComparator.equals(newResource, data)) {
+            // renamed only, copy original compressed content
+            return renamed ? modified(inJarEntry.copy(newResource.getName(), rawData)) : unmodified(inJarEntry.copy(rawData));
+        }
+        // compress modified jar file entry segment by segment
+        return modified(ArchiveEntry.compress(newResource.getName(), newResource, time).withAttributesOf(inJarEntry));
+    }
+
+    private static TransformedEntry modified(final ArchiveEntry entry) {
+        return new TransformedEntry(entry, true);
+    }
+
+    private static TransformedEntry unmodified(final ArchiveEntry entry) {
+        return new TransformedEntry(entry, false);
+    }
+
+    /**
+     * Returns new name of resource which content is not transformed.
+     *
+     * @param t transformer to use
+     * @param name resource name
+     * @return new resource name or the same name if resource is not renamed
+     */
+    private static String rename(final Transformer t, final String name) {
+        final Resource newResource = t.transform(new Resource(name, EMPTY));
+        return newResource != null ? newResource.getName() : name;
+    }
+
+    protected static <T> T await(final Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Jar file transformation interrupted");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static void shutdown(final ExecutorService executor) {
+        executor.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
     }
 
     private static void safeClose(final Closeable c) {
@@ -114,9 +602,11 @@ public abstract class Common {
 
     private static void readBytes(final InputStream is, final byte[] clazz, final boolean closeStream) throws IOException {
         try {
-            int offset = 0;
+            int offset = 0, count;
             while (offset < clazz.length) {
-                offset += is.read(clazz, offset, clazz.length - offset);
+                count = is.read(clazz, offset, clazz.length - offset);
+                if (count == -1) throw new EOFException("Unexpected end of stream after " + offset + " of " + clazz.length + " bytes");
+                offset += count;
             }
         } finally {
             if (closeStream) {
@@ -125,6 +615,21 @@ public abstract class Common {
         }
     }
 
+    /**
+     * Writes resource content using gathering write so transformed resource segments are not copied.
+     *
+     * @param os stream to write resource to, always closed
+     * @param r resource to write
+     * @throws IOException if some I/O error occurs
+     */
+    private static void writeResource(final FileOutputStream os, final Resource r) throws IOException {
+        try {
+            r.writeTo(os.getChannel());
+        } finally {
+            safeClose(os);
+        }
+    }
+
     private static void writeBytes(final OutputStream os, final byte[] clazz, final boolean closeStream) throws IOException {
         try {
             os.write(clazz);
@@ -135,7 +640,48 @@ public abstract class Common {
         }
     }
 
-    private static Transformer newTransformer(final String packagesMappingFile) throws IOException {
+    /**
+     * Creates transformation cache. Cached transformation results are specific to packages mapping,
+     * text resource types and transformer implementation of given transformer.
+     *
+     * @param directory cache directory
+     * @param maxSize maximum cache directory size in bytes
+     * @param t transformer to use
+     * @return transformation cache
+     * @throws IOException if some I/O error occurs
+     */
+    protected static TransformationCache newTransformationCache(final File directory, final long maxSize, final Transformer t) throws IOException {
+        return new TransformationCache(directory, maxSize, transformationFingerprint(t));
+    }
+
+    /**
+     * Computes transformation fingerprint. Transformations with the same fingerprint produce the same results.
+     * Transformer implementation is identified by its version, see {@link TransformationStamp#getVersion(Class)}.
+     * Text resource types are recorded in their priority order as they affect transformation results too.
+     *
+     * @param t transformer to use
+     * @return fingerprint of packages mapping, text resource types and transformer implementation
+     * @throws IllegalArgumentException if transformer was not built by {@link TransformerBuilder}
+     */
+    protected static String transformationFingerprint(final Transformer t) {
+        final PackagesMapping packagesMapping = PackagesMapping.of(t);
+        if (packagesMapping == null) throw new IllegalArgumentException("Packages mapping of transformer " + t + " is not known");
+        return packagesMapping.getFingerprint() + '/' + t.getClass().getName() + '/' + TransformationStamp.getVersion(t.getClass())
+                + '/' + t.getTextResources();
+    }
+
+    /**
+     * Computes SHA-256 hash of file content.
+     *
+     * @param file file to hash
+     * @return hexadecimal hash
+     * @throws IOException if some I/O error occurs
+     */
+    protected static String hash(final File file) throws IOException {
+        return Hashes.hash(file);
+    }
+
+    protected static Transformer newTransformer(final String packagesMappingFile) throws IOException {
         final TransformerBuilder builder = TransformerFactory.getInstance().newTransformer();
         if (packagesMappingFile != null) {
             builder.setPackagesMapping(packagesMappingFile);
@@ -143,4 +689,58 @@ public abstract class Common {
         return builder.build();
     }
 
+    /**
+     * Compares resource content with original content without materializing resource segments.
+     */
+    private static final class ContentComparator extends OutputStream {
+        private final ByteBuffer expected;
+        private boolean equal = true;
+
+        private ContentComparator(final ByteBuffer expected) {
+            this.expected = expected;
+        }
+
+        /**
+         * Returns <code>true</code> if resource content equals to given data.
+         *
+         * @param r resource
+         * @param data original content
+         * @return <code>true</code> if contents are equal, <code>false</code> otherwise
+         * @throws IOException if some I/O error occurs
+         */
+        private static boolean equals(final Resource r, final ByteBuffer data) throws IOException {
+            if (r.getSize() != data.remaining()) return false;
+            final ContentComparator comparator = new ContentComparator(data.duplicate());
+            r.writeTo(comparator);
+            return comparator.equal;
+        }
+
+        @Override
+        public void write(final int b) {
+            equal = equal && expected.get() == (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            if (!equal) return;
+            final ByteBuffer chunk = expected.duplicate();
+            chunk.limit(chunk.position() + len);
+            equal = chunk.equals(ByteBuffer.wrap(b, off, len));
+            expected.position(expected.position() + len);
+        }
+    }
+
+    /**
+     * Archive entry to write together with the flag whether it differs from the original entry.
+     */
+    private static final class TransformedEntry {
+        private final ArchiveEntry entry;
+        private final boolean modified;
+
+        private TransformedEntry(final ArchiveEntry entry, final boolean modified) {
+            this.entry = entry;
+            this.modified = modified;
+        }
+    }
+
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 hashing utilities. Hashes are rendered as lower case hexadecimal strings.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class Hashes {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Hashes() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Creates new SHA-256 message digest.
+     *
+     * @return message digest
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // should never happen
+        }
+    }
+
+    /**
+     * Updates message digest with file content.
+     *
+     * @param digest message digest
+     * @param file file to read
+     * @throws IOException if some I/O error occurs
+     */
+    static void update(final MessageDigest digest, final File file) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Computes hash of bytes between buffer position and limit. Buffer position is not modified.
+     *
+     * @param data data to hash
+     * @return hexadecimal hash
+     */
+    static String hash(final ByteBuffer data) {
+        final MessageDigest digest = newDigest();
+        digest.update(data.duplicate());
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes hash of file content.
+     *
+     * @param file file to hash
+     * @return hexadecimal hash
+     * @throws IOException if some I/O error occurs
+     */
+    static String hash(final File file) throws IOException {
+        final MessageDigest digest = newDigest();
+        update(digest, file);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Converts bytes to hexadecimal string.
+     *
+     * @param data bytes to convert
+     * @return hexadecimal string
+     */
+    static String toHex(final byte[] data) {
+        final StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.wildfly.transformer.Transformer;
+
+/**
+ * Transforms archives nested inside other archives (e.g. <code>WEB-INF/lib/*.jar</code> inside war file).
+ * Nested archives are read in memory by {@link ArchiveReader} and transformed recursively by {@link ArchiveWriter},
+ * so unchanged entries of nested archives are copied without recompression. Transformed nested archive is written
+ * to a temporary file in its final (stored or deflated) form, only references to these files are kept in memory.
+ * Identical nested archives (identified by content hash and compression method) are transformed only once.
+ * Nested archives containing matching {@link TransformationStamp} are not transformed at all.
+ * Nested archives of an archive are transformed ahead of time by worker threads of the caller if there are some.
+ * Temporary files are deleted when this instance is closed.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class NestedArchives implements Closeable {
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final Transformer t;
+    private final TransformationStamp stamp;
+    private final long time = System.currentTimeMillis();
+    private final ConcurrentMap<String, FutureTask<TransformedArchive>> transformedArchives = new ConcurrentHashMap<>();
+    private final Queue<File> tmpFiles = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executor;
+
+    /**
+     * Constructor. Executor is not shut down when this instance is closed.
+     *
+     * @param t transformer to use
+     * @param executor worker threads transforming nested archives or <code>null</code> if nested archives
+     *                 are transformed by the thread asking for the result
+     */
+    NestedArchives(final Transformer t, final ExecutorService executor) {
+        this.t = t;
+        this.stamp = TransformationStamp.of(t);
+        this.executor = executor;
+    }
+
+    /**
+     * Gets stamp of transformed archives.
+     *
+     * @return transformed archives stamp or <code>null</code> if archives should not be stamped
+     */
+    TransformationStamp getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Schedules transformation of all nested archives of given archive. Nested archives are transformed
+     * by worker threads ahead of time or by the thread asking for the result if no worker thread started it yet.
+     * Returned instance must be closed before the archive reader is closed.
+     *
+     * @param archiveReader enclosing archive
+     * @return nested archives of the enclosing archive
+     */
+    Prefetch prefetch(final ArchiveReader archiveReader) {
+        final Prefetch retVal = new Prefetch(archiveReader);
+        FutureTask<TransformedArchive> task;
+        for (ArchiveEntry entry : archiveReader.getEntries()) {
+            if (!Common.isArchive(entry.getName()) || entry.size > Integer.MAX_VALUE || entry.compressedSize > Integer.MAX_VALUE) continue;
+            task = retVal.newTask(entry);
+            retVal.tasks.put(entry, task);
+            if (executor != null) executor.execute(task);
+        }
+        return retVal;
+    }
+
+    /**
+     * Transforms nested archive.
+     *
+     * @param archive nested archive content
+     * @param method compression method of transformed nested archive
+     * @return transformed nested archive or <code>null</code> if no transformation was performed
+     * @throws IOException if some I/O error occurs
+     */
+    TransformedArchive transform(final ByteBuffer archive, final int method) throws IOException {
+        final FutureTask<TransformedArchive> task = new FutureTask<>(new Callable<TransformedArchive>() {
+            @Override
+            public TransformedArchive call() throws IOException {
+                return transformArchive(archive, method);
+            }
+        });
+        FutureTask<TransformedArchive> existingTask = transformedArchives.putIfAbsent(Hashes.hash(archive) + '/' + method, task);
+        if (existingTask == null) {
+            existingTask = task;
+            task.run();
+        }
+        return Common.await(existingTask);
+    }
+
+    /**
+     * Deletes temporary files holding transformed nested archives.
+     */
+    @Override
+    public void close() {
+        File tmpFile;
+        while ((tmpFile = tmpFiles.poll()) != null) {
+            tmpFile.delete();
+        }
+    }
+
+    private TransformedArchive transformArchive(final ByteBuffer archive, final int method) throws IOException {
+        ArchiveReader archiveReader = null;
+        try {
+            archiveReader = new ArchiveReader(archive);
+        } catch (final IOException | RuntimeException e) {
+            // malformed central directory, nested archive is transformed as stream
+        }
+        final File tmpFile = File.createTempFile("nested", ".tmp");
+        tmpFiles.add(tmpFile);
+        final EntryDataOutputStream os = new EntryDataOutputStream(new FileOutputStream(tmpFile), method);
+        boolean modified = false;
+        try {
+            if (archiveReader == null) {
+                modified = Common.transformJarStream(new ByteArrayInputStream(toBytes(archive)), os, t, this);
+            } else if (stamp == null || !stamp.matches(archiveReader)) {
+                final ArchiveWriter archiveWriter = new ArchiveWriter(os);
+                modified = Common.transformArchive(archiveReader, archiveWriter, t, null, this, time);
+                archiveWriter.close();
+            }
+        } finally {
+            os.close();
+            if (archiveReader != null) archiveReader.close();
+            if (!modified) {
+                tmpFiles.remove(tmpFile);
+                tmpFile.delete();
+            }
+        }
+        return modified ? new TransformedArchive(tmpFile, method, os.crc.getValue(), os.size) : null;
+    }
+
+    private static byte[] toBytes(final ByteBuffer data) {
+        final byte[] retVal = new byte[data.remaining()];
+        data.duplicate().get(retVal);
+        return retVal;
+    }
+
+    /**
+     * Transformed nested archive stored in a temporary file in its final (stored or deflated) form.
+     */
+    static final class TransformedArchive {
+        private final File file;
+        private final int method;
+        private final long crc;
+        private final long size;
+
+        private TransformedArchive(final File file, final int method, final long crc, final long size) {
+            this.file = file;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+        }
+
+        /**
+         * Creates archive entry referencing transformed nested archive.
+         *
+         * @param name entry name
+         * @param time entry modification time in milliseconds
+         * @return archive entry
+         */
+        ArchiveEntry toEntry(final String name, final long time) {
+            return ArchiveEntry.of(name, method, crc, size, time, file);
+        }
+
+        /**
+         * Writes uncompressed transformed nested archive.
+         *
+         * @param os stream to write to
+         * @throws IOException if some I/O error occurs
+         */
+        void writeTo(final OutputStream os) throws IOException {
+            if (method != ArchiveEntry.STORED) throw new IllegalStateException();
+            Files.copy(file.toPath(), os);
+        }
+    }
+
+    /**
+     * Nested archives of single enclosing archive scheduled for transformation.
+     */
+    final class Prefetch implements Closeable {
+        private final ArchiveReader archiveReader;
+        private final ConcurrentMap<ArchiveEntry, FutureTask<TransformedArchive>> tasks = new ConcurrentHashMap<>();
+        private volatile boolean closed;
+
+        private Prefetch(final ArchiveReader archiveReader) {
+            this.archiveReader = archiveReader;
+        }
+
+        /**
+         * Transforms nested archive. Compression method of the original entry is preserved.
+         *
+         * @param entry nested archive entry of the enclosing archive
+         * @return transformed nested archive or <code>null</code> if no transformation was performed
+         * @throws IOException if some I/O error occurs
+         */
+        TransformedArchive transform(final ArchiveEntry entry) throws IOException {
+            FutureTask<TransformedArchive> task = tasks.get(entry);
+            if (task == null) task = newTask(entry);
+            task.run(); // no-op if worker thread already started it
+            return Common.await(task);
+        }
+
+        /**
+         * Waits till all started nested archives transformations are finished, not started ones are skipped.
+         * Enclosing archive reader can be closed afterwards.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            boolean interrupted = false;
+            for (FutureTask<TransformedArchive> task : tasks.values()) {
+                task.run();
+                while (true) {
+                    try {
+                        task.get();
+                        break;
+                    } catch (final InterruptedException e) {
+                        interrupted = true;
+                    } catch (final ExecutionException e) {
+                        break; // reported to the thread asking for the result
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        private FutureTask<TransformedArchive> newTask(final ArchiveEntry entry) {
+            return new FutureTask<>(new Callable<TransformedArchive>() {
+                @Override
+                public TransformedArchive call() throws IOException {
+                    if (closed) return null;
+                    final ByteBuffer archive = archiveReader.getData(entry, archiveReader.getRawData(entry));
+                    return NestedArchives.this.transform(archive, entry.method);
+                }
+            });
+        }
+    }
+
+    /**
+     * Compresses written data if requested and computes CRC-32 and size of uncompressed data.
+     */
+    private static final class EntryDataOutputStream extends FilterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private final Deflater deflater;
+        private long size;
+        private boolean closed;
+
+        private EntryDataOutputStream(final OutputStream os, final int method) {
+            this(os, method == ArchiveEntry.DEFLATED ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null);
+        }
+
+        private EntryDataOutputStream(final OutputStream os, final Deflater deflater) {
+            super(deflater != null ? new DeflaterOutputStream(os, deflater, STREAM_BUFFER_SIZE) : os);
+            this.deflater = deflater;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            size++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                out.close();
+            } finally {
+                if (deflater != null) deflater.end();
+            }
+        }
+    }
+
+}
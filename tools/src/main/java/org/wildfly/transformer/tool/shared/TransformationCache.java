@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent content addressed cache of transformation results.
+ * Cache entries are keyed by hash of transformation input and transformation fingerprint
+ * (packages mapping fingerprint, text resource types and transformer implementation). Every cache entry either holds
+ * transformed content or <i>no change</i> verdict. Cache entries are written atomically so
+ * cache directory can be shared by multiple threads and multiple processes (e.g. parallel Maven builds).
+ * Least recently used cache entries are evicted once cache directory size exceeds configured maximum.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class TransformationCache {
+
+    private static final String FORMAT_VERSION = "1";
+    private static final String UNCHANGED_SUFFIX = ".unchanged";
+    private static final String TMP_PREFIX = ".tmp-";
+    private static final long MIN_ENTRY_SIZE = 512;
+    private static final long STALE_TMP_FILE_AGE = 60L * 60 * 1000;
+
+    private final File directory;
+    private final long maxSize;
+    private final String fingerprint;
+    private final AtomicLong size = new AtomicLong(-1);
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * Constructor.
+     *
+     * @param directory cache directory, it is created if it doesn't exist
+     * @param maxSize maximum cache directory size in bytes
+     * @param fingerprint transformation fingerprint, results of different transformations never collide
+     * @throws IOException if cache directory cannot be created
+     */
+    public TransformationCache(final File directory, final long maxSize, final String fingerprint) throws IOException {
+        if (directory == null || fingerprint == null) throw new NullPointerException();
+        if (maxSize <= 0) throw new IllegalArgumentException("Cache size must be positive number");
+        Files.createDirectories(directory.toPath());
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.fingerprint = FORMAT_VERSION + ':' + fingerprint;
+    }
+
+    /**
+     * Computes cache key of transformation input.
+     *
+     * @param input transformation input
+     * @return cache key
+     */
+    String key(final byte[] input) {
+        final MessageDigest digest = Hashes.newDigest();
+        digest.update(input);
+        return key(digest);
+    }
+
+    /**
+     * Computes cache key of transformation input file.
+     *
+     * @param input transformation input file
+     * @return cache key
+     * @throws IOException if some I/O error occurs
+     */
+    String key(final File input) throws IOException {
+        final MessageDigest digest = Hashes.newDigest();
+        Hashes.update(digest, input);
+        return key(digest);
+    }
+
+    /**
+     * Returns <code>true</code> if <i>no change</i> verdict is cached for given key.
+     *
+     * @param key cache key
+     * @return <code>true</code> if transformation of associated input is known to produce no change
+     */
+    boolean isUnchanged(final String key) {
+        return touch(file(key + UNCHANGED_SUFFIX));
+    }
+
+    /**
+     * Copies cached transformed content to target file.
+     *
+     * @param key cache key
+     * @param target file to write cached content to
+     * @return <code>true</code> if cached content was found and copied, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    boolean copyTo(final String key, final File target) throws IOException {
+        final File cached = file(key);
+        if (!touch(cached)) return false;
+        final File tmp = File.createTempFile(TMP_PREFIX, null, target.getAbsoluteFile().getParentFile());
+        try {
+            Files.copy(cached.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (final NoSuchFileException e) {
+            return false; // evicted concurrently
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Reads cached transformed content.
+     *
+     * @param key cache key
+     * @return cached content or <code>null</code> if not found
+     * @throws IOException if some I/O error occurs
+     */
+    byte[] get(final String key) throws IOException {
+        final File cached = file(key);
+        if (!touch(cached)) return null;
+        try {
+            return Files.readAllBytes(cached.toPath());
+        } catch (final NoSuchFileException e) {
+            return null; // evicted concurrently
+        }
+    }
+
+    /**
+     * Stores <i>no change</i> verdict.
+     *
+     * @param key cache key
+     * @throws IOException if some I/O error occurs
+     */
+    void putUnchanged(final String key) throws IOException {
+        store(key + UNCHANGED_SUFFIX, null, null);
+    }
+
+    /**
+     * Stores transformed content.
+     *
+     * @param key cache key
+     * @param content transformed content
+     * @throws IOException if some I/O error occurs
+     */
+    void put(final String key, final byte[] content) throws IOException {
+        store(key, content, null);
+    }
+
+    /**
+     * Stores transformed content of given file.
+     *
+     * @param key cache key
+     * @param content file with transformed content
+     * @throws IOException if some I/O error occurs
+     */
+    void put(final String key, final File content) throws IOException {
+        store(key, null, content);
+    }
+
+    private void store(final String name, final byte[] content, final File contentFile) throws IOException {
+        final File target = file(name);
+        final File parent = target.getParentFile();
+        Files.createDirectories(parent.toPath());
+        final File tmp = File.createTempFile(TMP_PREFIX, null, parent);
+        // entry stored concurrently by other thread or process is replaced, its size is not counted twice
+        final long replacedSize = target.isFile() ? entrySize(target.length()) : 0;
+        try {
+            if (content != null) {
+                Files.write(tmp.toPath(), content);
+            } else if (contentFile != null) {
+                Files.copy(contentFile.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+        if (size.get() < 0) {
+            evict(); // computes initial cache size
+        } else if (size.addAndGet(entrySize(target.length()) - replacedSize) > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes least recently used cache entries until cache directory size drops below three quarters of maximum size.
+     * If some other thread is already evicting this method returns immediately.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) return;
+        try {
+            final List<CachedFile> entries = new ArrayList<>();
+            final long now = System.currentTimeMillis();
+            long total = 0;
+            final File[] subdirectories = directory.listFiles();
+            if (subdirectories != null) for (File subdirectory : subdirectories) {
+                final File[] files = subdirectory.listFiles();
+                if (files == null) continue;
+                for (File file : files) {
+                    if (file.getName().startsWith(TMP_PREFIX)) {
+                        // leftover of crashed process
+                        if (now - file.lastModified() > STALE_TMP_FILE_AGE) file.delete();
+                        continue;
+                    }
+                    final CachedFile entry = new CachedFile(file);
+                    entries.add(entry);
+                    total += entry.size;
+                }
+            }
+            if (total > maxSize) {
+                Collections.sort(entries, new Comparator<CachedFile>() {
+                    @Override
+                    public int compare(final CachedFile f1, final CachedFile f2) {
+                        return Long.compare(f1.lastAccess, f2.lastAccess);
+                    }
+                });
+                final long threshold = maxSize / 4 * 3;
+                for (CachedFile entry : entries) {
+                    if (total <= threshold) break;
+                    if (entry.file.delete() || !entry.file.exists()) total -= entry.size;
+                }
+            }
+            size.set(total);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static boolean touch(final File file) {
+        // last modification time is used as last access time by LRU eviction
+        return file.setLastModified(System.currentTimeMillis()) && file.isFile();
+    }
+
+    private File file(final String name) {
+        return new File(new File(directory, name.substring(0, 2)), name);
+    }
+
+    private String key(final MessageDigest inputDigest) {
+        final MessageDigest digest = Hashes.newDigest();
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update(inputDigest.digest());
+        return Hashes.toHex(digest.digest());
+    }
+
+    private static long entrySize(final long length) {
+        return Math.max(length, MIN_ENTRY_SIZE);
+    }
+
+    private static final class CachedFile {
+        private final File file;
+        private final long lastAccess;
+        private final long size;
+
+        private CachedFile(final File file) {
+            this.file = file;
+            this.lastAccess = file.lastModified();
+            this.size = entrySize(file.length());
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.wildfly.transformer.PackagesMapping;
+import org.wildfly.transformer.Transformer;
+
+/**
+ * Transformed archive stamp. Every transformed archive contains <code>META-INF/jakartasignature.prop</code> entry
+ * recording transformer implementation, its version, packages mapping fingerprint and ordered text resource types.
+ * Archives with matching stamp don't need to be transformed again.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class TransformationStamp {
+
+    /**
+     * Stamp entry name.
+     */
+    static final String NAME = "META-INF/jakartasignature.prop";
+    private static final byte[] NAME_BYTES = NAME.getBytes(StandardCharsets.UTF_8);
+    private static final int CLASS_BUFFER_SIZE = 8192;
+    private static final ClassValue<String> VERSIONS = new ClassValue<String>() {
+        @Override
+        protected String computeValue(final Class<?> engineClass) {
+            final Package enginePackage = engineClass.getPackage();
+            final String version = enginePackage != null ? enginePackage.getImplementationVersion() : null;
+            return version != null ? version : classHash(engineClass);
+        }
+    };
+
+    private final byte[] content;
+
+    private TransformationStamp(final byte[] content) {
+        this.content = content;
+    }
+
+    /**
+     * Creates stamp of given transformer.
+     *
+     * @param t transformer
+     * @return transformer stamp or <code>null</code> if packages mapping of the transformer is not known
+     */
+    static TransformationStamp of(final Transformer t) {
+        final PackagesMapping packagesMapping = PackagesMapping.of(t);
+        if (packagesMapping == null) return null;
+        final String content = "transformer=" + t.getClass().getName() + '\n'
+                + "transformer.version=" + getVersion(t.getClass()) + '\n'
+                + "mapping.fingerprint=" + packagesMapping.getFingerprint() + '\n'
+                + "text.resources=" + t.getTextResources() + '\n';
+        return new TransformationStamp(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets version of transformer implementation. Implementation version of the package is used if available.
+     * Classes not loaded from packaged jar (e.g. from build output directory) don't define it, hash of the
+     * implementation class bytes is used instead so modified implementations don't share their stamps.
+     *
+     * @param engineClass transformer implementation class
+     * @return implementation version, class bytes hash or <code>unknown</code> if class bytes are not available
+     */
+    static String getVersion(final Class<?> engineClass) {
+        return VERSIONS.get(engineClass);
+    }
+
+    /**
+     * Returns <code>true</code> if entry name denotes stamp entry.
+     *
+     * @param name UTF-8 encoded entry name
+     * @return <code>true</code> if entry is stamp entry, <code>false</code> otherwise
+     */
+    static boolean isStamp(final byte[] name) {
+        return Arrays.equals(NAME_BYTES, name);
+    }
+
+    /**
+     * Gets stamp entry content.
+     *
+     * @return stamp entry content
+     */
+    byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Returns <code>true</code> if stamp entry content equals to this stamp.
+     *
+     * @param data stamp entry content
+     * @return <code>true</code> if stamp entry content matches, <code>false</code> otherwise
+     */
+    boolean matches(final ByteBuffer data) {
+        return ByteBuffer.wrap(content).equals(data);
+    }
+
+    /**
+     * Returns <code>true</code> if archive contains matching stamp entry. Stamp entry is looked up in central directory.
+     *
+     * @param archiveReader archive
+     * @return <code>true</code> if archive was already transformed by equivalent transformer, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    boolean matches(final ArchiveReader archiveReader) throws IOException {
+        final ArchiveEntry entry = archiveReader.getEntry(NAME_BYTES);
+        if (entry == null || entry.size != content.length) return false;
+        return matches(archiveReader.getData(entry, archiveReader.getRawData(entry)));
+    }
+
+    private static String classHash(final Class<?> engineClass) {
+        final String className = engineClass.getName();
+        try (InputStream is = engineClass.getResourceAsStream(className.substring(className.lastIndexOf('.') + 1) + ".class")) {
+            if (is == null) return "unknown";
+            final MessageDigest digest = Hashes.newDigest();
+            final byte[] buffer = new byte[CLASS_BUFFER_SIZE];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+            return "sha256:" + Hashes.toHex(digest.digest());
+        } catch (final IOException e) {
+            return "unknown";
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link ArchiveReader}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ArchiveReaderTest extends TestCase {
+
+    private static final byte[] PREFIX = "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STORED_CONTENT = "stored content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DEFLATED_CONTENT = repeat("deflated content ", 64);
+
+    public void testArchive() throws IOException {
+        assertEntries(newArchive(new byte[0]), 0);
+    }
+
+    public void testPrefixedArchive() throws IOException {
+        assertEntries(newArchive(PREFIX), PREFIX.length);
+    }
+
+    public void testPrefixedArchiveInMemory() throws IOException {
+        final byte[] archive = newArchive(PREFIX);
+        try (ArchiveReader archiveReader = new ArchiveReader(ByteBuffer.wrap(archive))) {
+            assertEntries(archiveReader, PREFIX.length);
+        }
+    }
+
+    public void testStoredEntryDataOutliveClosedReader() throws IOException {
+        final File archive = write(newArchive(PREFIX));
+        try {
+            final ArchiveReader archiveReader = new ArchiveReader(archive);
+            assertEntries(archiveReader, PREFIX.length);
+            final ArchiveEntry entry = archiveReader.getEntries().get(0);
+            final ByteBuffer data = archiveReader.getData(entry, archiveReader.getRawData(entry));
+            assertFalse(data.hasArray()); // slice of archive mapping
+            archiveReader.close();
+            archiveReader.close();
+            assertEquals(ByteBuffer.wrap(STORED_CONTENT), data);
+        } finally {
+            archive.delete();
+        }
+    }
+
+    private static void assertEntries(final byte[] archive, final int prefixLength) throws IOException {
+        final File file = write(archive);
+        try (ArchiveReader archiveReader = new ArchiveReader(file)) {
+            assertEntries(archiveReader, prefixLength);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertEntries(final ArchiveReader archiveReader, final int prefixLength) throws IOException {
+        final List<ArchiveEntry> entries = archiveReader.getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("stored.txt", entries.get(0).getName());
+        assertEquals(ArchiveEntry.STORED, entries.get(0).method);
+        assertEquals(prefixLength, entries.get(0).offset);
+        assertEquals("deflated.txt", entries.get(1).getName());
+        assertEquals(ArchiveEntry.DEFLATED, entries.get(1).method);
+        for (ArchiveEntry entry : entries) {
+            final byte[] expected = entry.method == ArchiveEntry.STORED ? STORED_CONTENT : DEFLATED_CONTENT;
+            assertTrue(Arrays.equals(expected, archiveReader.decompress(entry, archiveReader.getRawData(entry))));
+        }
+        assertSame(entries.get(1), archiveReader.getEntry("deflated.txt".getBytes(StandardCharsets.UTF_8)));
+        assertNull(archiveReader.getEntry("missing.txt".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] newArchive(final byte[] prefix) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(prefix);
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            final ZipEntry storedEntry = new ZipEntry("stored.txt");
+            final CRC32 crc = new CRC32();
+            crc.update(STORED_CONTENT);
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(STORED_CONTENT.length);
+            storedEntry.setCrc(crc.getValue());
+            zos.putNextEntry(storedEntry);
+            zos.write(STORED_CONTENT);
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("deflated.txt"));
+            zos.write(DEFLATED_CONTENT);
+            zos.closeEntry();
+        }
+        return baos.toByteArray();
+    }
+
+    private static File write(final byte[] content) throws IOException {
+        final File retVal = File.createTempFile("archive", ".jar");
+        try (OutputStream os = new FileOutputStream(retVal)) {
+            os.write(content);
+        }
+        return retVal;
+    }
+
+    private static byte[] repeat(final String s, final int count) {
+        final StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
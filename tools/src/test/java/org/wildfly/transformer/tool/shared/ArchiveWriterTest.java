@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import org.wildfly.transformer.Transformer;
+import org.wildfly.transformer.Transformer.Resource;
+
+/**
+ * Round trip tests of {@link ArchiveReader} and {@link ArchiveWriter}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ArchiveWriterTest extends TestCase {
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+    private static final int UNIX_VERSION_MADE_BY = 3 << 8 | 20;
+    private static final int EXECUTABLE_FILE_ATTRIBUTES = 0100755 << 16;
+    private static final byte[] EXTRA = {(byte) 0xFE, (byte) 0xCA, 4, 0, 1, 2, 3, 4};
+    private static final String ARCHIVE_COMMENT = "archive comment";
+    private static final String STORED_CONTENT = "stored javax/ content";
+    private static final String DEFLATED_CONTENT = "deflated content, deflated content, deflated content";
+
+    public void testCopyPreservesAttributes() throws IOException {
+        final byte[] archive = newArchive();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ArchiveReader archiveReader = new ArchiveReader(ByteBuffer.wrap(archive))) {
+            final ArchiveWriter archiveWriter = new ArchiveWriter(baos);
+            archiveWriter.setComment(archiveReader.getComment());
+            for (ArchiveEntry entry : archiveReader.getEntries()) {
+                archiveWriter.write(entry.copy(archiveReader.getRawData(entry)));
+            }
+            archiveWriter.close();
+        }
+        assertAttributes(baos.toByteArray(), "stored.txt", "deflated.txt");
+    }
+
+    public void testTransformationPreservesAttributes() throws IOException {
+        final byte[] archive = newArchive();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final Transformer t = new Transformer() {
+            @Override
+            public Resource transform(final Resource r) {
+                final String content = new String(r.getData(), StandardCharsets.UTF_8);
+                if (!content.contains("javax/")) return null;
+                return new Resource(r.getName().replace(".txt", ".text"), content.replace("javax/", "jakarta/").getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        try (NestedArchives nestedArchives = new NestedArchives(t, null);
+             ArchiveReader archiveReader = new ArchiveReader(ByteBuffer.wrap(archive))) {
+            final ArchiveWriter archiveWriter = new ArchiveWriter(baos);
+            assertTrue(Common.transformArchive(archiveReader, archiveWriter, t, null, nestedArchives, System.currentTimeMillis()));
+            archiveWriter.close();
+        }
+        assertAttributes(baos.toByteArray(), "stored.text", "deflated.txt");
+    }
+
+    public void testSegmentedContentIsCompressedSegmentBySegment() throws IOException {
+        final byte[] text = DEFLATED_CONTENT.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(text.length);
+        direct.put(text).flip();
+        final Resource compressible = new Resource("compressible.txt", new ByteBuffer[] {ByteBuffer.wrap(text), direct, ByteBuffer.wrap(text, 9, 7)});
+        final Resource incompressible = new Resource("incompressible.bin", new ByteBuffer[] {ByteBuffer.wrap(new byte[] {1, 2}), ByteBuffer.wrap(new byte[] {3})});
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ArchiveWriter archiveWriter = new ArchiveWriter(baos);
+        archiveWriter.write(ArchiveEntry.compress(compressible.getName(), compressible, System.currentTimeMillis()));
+        archiveWriter.write(ArchiveEntry.compress(incompressible.getName(), incompressible, System.currentTimeMillis()));
+        archiveWriter.close();
+        try (ArchiveReader archiveReader = new ArchiveReader(ByteBuffer.wrap(baos.toByteArray()))) {
+            assertCompressed(archiveReader, archiveReader.getEntries().get(0), ArchiveEntry.DEFLATED, compressible.getData());
+            assertCompressed(archiveReader, archiveReader.getEntries().get(1), ArchiveEntry.STORED, incompressible.getData());
+        }
+    }
+
+    private static void assertCompressed(final ArchiveReader archiveReader, final ArchiveEntry entry, final int method, final byte[] content) throws IOException {
+        assertEquals(method, entry.method);
+        final byte[] data = archiveReader.decompress(entry, archiveReader.getRawData(entry));
+        assertTrue(Arrays.equals(content, data));
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        assertEquals(crc.getValue(), entry.crc);
+    }
+
+    private static void assertAttributes(final byte[] archive, final String storedName, final String deflatedName) throws IOException {
+        try (ArchiveReader archiveReader = new ArchiveReader(ByteBuffer.wrap(archive))) {
+            assertEquals(ARCHIVE_COMMENT, new String(archiveReader.getComment(), StandardCharsets.UTF_8));
+            assertEquals(2, archiveReader.getEntries().size());
+            for (ArchiveEntry entry : archiveReader.getEntries()) {
+                assertEquals(UNIX_VERSION_MADE_BY & 0xFF00, entry.versionMadeBy & 0xFF00);
+                assertEquals(EXECUTABLE_FILE_ATTRIBUTES, entry.externalAttributes);
+                assertEquals(0, entry.flags & 0x0008);
+            }
+        }
+        final File file = File.createTempFile("archive", ".jar");
+        try {
+            Files.write(file.toPath(), archive);
+            try (ZipFile zipFile = new ZipFile(file)) {
+                assertEquals(ARCHIVE_COMMENT, zipFile.getComment());
+                final ZipEntry storedEntry = zipFile.getEntry(storedName);
+                assertEquals("stored comment", storedEntry.getComment());
+                assertTrue(Arrays.equals(EXTRA, storedEntry.getExtra()));
+                final ZipEntry deflatedEntry = zipFile.getEntry(deflatedName);
+                assertEquals(ZipEntry.DEFLATED, deflatedEntry.getMethod());
+                assertEquals("deflated comment", deflatedEntry.getComment());
+                assertTrue(Arrays.equals(EXTRA, deflatedEntry.getExtra()));
+                assertEquals(DEFLATED_CONTENT, new String(readAll(zipFile, deflatedEntry), StandardCharsets.UTF_8));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Creates archive with comments and extra fields, central directory records are patched
+     * to declare unix executable file attributes.
+     */
+    private static byte[] newArchive() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            zos.setComment(ARCHIVE_COMMENT);
+            final byte[] storedContent = STORED_CONTENT.getBytes(StandardCharsets.UTF_8);
+            final ZipEntry storedEntry = new ZipEntry("stored.txt");
+            final CRC32 crc = new CRC32();
+            crc.update(storedContent);
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setCrc(crc.getValue());
+            storedEntry.setSize(storedContent.length);
+            storedEntry.setComment("stored comment");
+            storedEntry.setExtra(EXTRA);
+            zos.putNextEntry(storedEntry);
+            zos.write(storedContent);
+            zos.closeEntry();
+            final ZipEntry deflatedEntry = new ZipEntry("deflated.txt");
+            deflatedEntry.setComment("deflated comment");
+            deflatedEntry.setExtra(EXTRA);
+            zos.putNextEntry(deflatedEntry);
+            zos.write(DEFLATED_CONTENT.getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+        }
+        final ByteBuffer archive = ByteBuffer.wrap(baos.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i + 4 <= archive.limit(); i++) {
+            if (archive.getInt(i) != CENTRAL_HEADER_SIGNATURE) continue;
+            archive.putShort(i + 4, (short) UNIX_VERSION_MADE_BY);
+            archive.putInt(i + 38, EXECUTABLE_FILE_ATTRIBUTES);
+        }
+        return archive.array();
+    }
+
+    private static byte[] readAll(final ZipFile zipFile, final ZipEntry entry) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int count;
+        try (InputStream is = zipFile.getInputStream(entry)) {
+            while ((count = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, count);
+            }
+        }
+        return baos.toByteArray();
+    }
+
+}
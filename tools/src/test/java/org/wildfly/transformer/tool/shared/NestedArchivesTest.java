@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import org.wildfly.transformer.Transformer;
+
+/**
+ * Tests of {@link NestedArchives}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class NestedArchivesTest extends TestCase {
+
+    private static final byte[] TEXT = "uses javax/ package".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] UNRELATED_TEXT = "unrelated".getBytes(StandardCharsets.UTF_8);
+
+    public void testNestedArchivesKeepCompressionMethod() throws IOException {
+        final byte[] nestedArchive = newArchive(entry("javax/text.txt", TEXT));
+        final Map<String, Object[]> entries = new LinkedHashMap<>();
+        entries.put("lib/stored.jar", new Object[] {nestedArchive, ZipEntry.STORED});
+        entries.put("lib/deflated.jar", new Object[] {nestedArchive, ZipEntry.DEFLATED});
+        entries.put("lib/copy.jar", new Object[] {nestedArchive, ZipEntry.STORED});
+        entries.put("lib/unchanged.jar", new Object[] {newArchive(entry("org/text.txt", UNRELATED_TEXT)), ZipEntry.STORED});
+
+        final CountingTransformer t = new CountingTransformer();
+        final byte[] transformed = transform(newArchive(entries), t);
+        // identical nested archives with the same compression method are transformed only once
+        assertEquals(2, t.transformedTexts.get());
+
+        try (ArchiveReader archiveReader = new ArchiveReader(ByteBuffer.wrap(transformed))) {
+            assertEquals(4, archiveReader.getEntries().size());
+            assertNestedArchive(archiveReader, archiveReader.getEntries().get(0), "lib/stored.jar", ArchiveEntry.STORED, "jakarta/text.txt", "uses jakarta/ package");
+            assertNestedArchive(archiveReader, archiveReader.getEntries().get(1), "lib/deflated.jar", ArchiveEntry.DEFLATED, "jakarta/text.txt", "uses jakarta/ package");
+            assertNestedArchive(archiveReader, archiveReader.getEntries().get(2), "lib/copy.jar", ArchiveEntry.STORED, "jakarta/text.txt", "uses jakarta/ package");
+            assertNestedArchive(archiveReader, archiveReader.getEntries().get(3), "lib/unchanged.jar", ArchiveEntry.STORED, "org/text.txt", "unrelated");
+        }
+    }
+
+    public void testBinaryEntriesAreNotInflated() throws IOException {
+        final Map<String, Object[]> entries = new LinkedHashMap<>();
+        entries.put("javax/image.png", new Object[] {TEXT, ZipEntry.DEFLATED});
+        entries.put("org/image.png", new Object[] {TEXT, ZipEntry.STORED});
+        entries.put("org/text.txt", new Object[] {TEXT, ZipEntry.DEFLATED});
+
+        final CountingTransformer t = new CountingTransformer();
+        final byte[] transformed = transform(newArchive(entries), t);
+        // binary entries are renamed by name only and copied without decompression
+        assertEquals(0, t.inspectedBinaries.get());
+        assertEquals(1, t.transformedTexts.get());
+
+        try (ArchiveReader archiveReader = new ArchiveReader(ByteBuffer.wrap(transformed))) {
+            assertEquals(3, archiveReader.getEntries().size());
+            assertEquals("jakarta/image.png", archiveReader.getEntries().get(0).getName());
+            assertEquals(ArchiveEntry.DEFLATED, archiveReader.getEntries().get(0).method);
+            assertEquals("org/image.png", archiveReader.getEntries().get(1).getName());
+            assertEquals(ArchiveEntry.STORED, archiveReader.getEntries().get(1).method);
+            final ArchiveEntry textEntry = archiveReader.getEntries().get(2);
+            assertEquals("uses jakarta/ package", new String(archiveReader.decompress(textEntry, archiveReader.getRawData(textEntry)), StandardCharsets.UTF_8));
+        }
+    }
+
+    public void testRequiresTransformationChecksBinaryEntriesByName() throws IOException {
+        final Map<String, Object[]> entries = new LinkedHashMap<>();
+        entries.put("org/image.png", new Object[] {TEXT, ZipEntry.DEFLATED});
+        entries.put("org/text.txt", new Object[] {UNRELATED_TEXT, ZipEntry.DEFLATED});
+        final CountingTransformer t = new CountingTransformer();
+        assertFalse(requiresTransformation(newArchive(entries), t));
+
+        entries.put("javax/image.png", new Object[] {UNRELATED_TEXT, ZipEntry.STORED});
+        assertTrue(requiresTransformation(newArchive(entries), t));
+        assertTrue(t.requiresTransformation(new ZipInputStream(new ByteArrayInputStream(newArchive(entries)))));
+        // content of binary entries is never inspected
+        assertEquals(0, t.inspectedBinaries.get());
+    }
+
+    private static boolean requiresTransformation(final byte[] archive, final Transformer t) throws IOException {
+        final File file = File.createTempFile("nested-archives-test", ".jar");
+        try {
+            Files.write(file.toPath(), archive);
+            return Common.requiresTransformation(file, t);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertNestedArchive(final ArchiveReader archiveReader, final ArchiveEntry entry, final String name,
+                                            final int method, final String nestedName, final String nestedContent) throws IOException {
+        assertEquals(name, entry.getName());
+        assertEquals(method, entry.method);
+        final byte[] data = archiveReader.decompress(entry, archiveReader.getRawData(entry));
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        assertEquals(crc.getValue(), entry.crc);
+        try (ArchiveReader nestedArchiveReader = new ArchiveReader(ByteBuffer.wrap(data))) {
+            assertEquals(1, nestedArchiveReader.getEntries().size());
+            final ArchiveEntry nestedEntry = nestedArchiveReader.getEntries().get(0);
+            assertEquals(nestedName, nestedEntry.getName());
+            assertEquals(nestedContent, new String(nestedArchiveReader.decompress(nestedEntry, nestedArchiveReader.getRawData(nestedEntry)), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] transform(final byte[] archive, final Transformer t) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (NestedArchives nestedArchives = new NestedArchives(t, null);
+             ArchiveReader archiveReader = new ArchiveReader(ByteBuffer.wrap(archive))) {
+            final ArchiveWriter archiveWriter = new ArchiveWriter(baos);
+            assertTrue(Common.transformArchive(archiveReader, archiveWriter, t, null, nestedArchives, System.currentTimeMillis()));
+            archiveWriter.close();
+        }
+        return baos.toByteArray();
+    }
+
+    private static Map<String, Object[]> entry(final String name, final byte[] content) {
+        final Map<String, Object[]> retVal = new LinkedHashMap<>();
+        retVal.put(name, new Object[] {content, ZipEntry.DEFLATED});
+        return retVal;
+    }
+
+    private static byte[] newArchive(final Map<String, Object[]> entries) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            byte[] content;
+            ZipEntry zipEntry;
+            for (Map.Entry<String, Object[]> entry : entries.entrySet()) {
+                content = (byte[]) entry.getValue()[0];
+                zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setMethod((Integer) entry.getValue()[1]);
+                if (zipEntry.getMethod() == ZipEntry.STORED) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(content);
+                    zipEntry.setCrc(crc.getValue());
+                    zipEntry.setSize(content.length);
+                    zipEntry.setCompressedSize(content.length);
+                }
+                zos.putNextEntry(zipEntry);
+                zos.write(content);
+                zos.closeEntry();
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Renames resources in <code>javax/</code> package and rewrites <code>javax/</code> in text resources content.
+     * Counts transformed text resources and inspected content of binary resources.
+     */
+    private static final class CountingTransformer implements Transformer {
+
+        private final AtomicInteger transformedTexts = new AtomicInteger();
+        private final AtomicInteger inspectedBinaries = new AtomicInteger();
+
+        @Override
+        public Resource transform(final Resource r) {
+            final String newName = r.getName().replace("javax/", "jakarta/");
+            if (!transformsContent(r.getName())) return newName.equals(r.getName()) ? null : new Resource(newName, r.getData());
+            transformedTexts.incrementAndGet();
+            final String content = new String(r.getData(), StandardCharsets.UTF_8);
+            final String newContent = content.replace("javax/", "jakarta/");
+            if (newName.equals(r.getName()) && newContent.equals(content)) return null;
+            return new Resource(newName, newContent.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean requiresTransformation(final byte[] data, final int off, final int len, final String name) {
+            if (!transformsContent(name) && len > 0) inspectedBinaries.incrementAndGet();
+            return name.contains("javax/") || transformsContent(name) && new String(data, off, len, StandardCharsets.UTF_8).contains("javax/");
+        }
+
+        @Override
+        public boolean transformsContent(final String name) {
+            return name.endsWith(".txt");
+        }
+
+    }
+
+}
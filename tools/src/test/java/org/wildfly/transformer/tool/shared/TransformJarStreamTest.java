@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Red Hat, Inc, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.transformer.tool.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import org.wildfly.transformer.Transformer;
+
+/**
+ * Tests of {@link Common#transformJarStream(java.io.InputStream, java.io.OutputStream, Transformer)}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class TransformJarStreamTest extends TestCase {
+
+    private static final int LARGE_ENTRY_SIZE = 5 * 1024 * 1024;
+
+    public void testUntransformedContentIsStreamed() throws IOException {
+        final byte[] largeContent = new byte[LARGE_ENTRY_SIZE];
+        new Random(42).nextBytes(largeContent);
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("javax/data.bin", largeContent);
+        entries.put("org/data.bin", largeContent);
+        entries.put("javax/text.txt", "uses javax/ package".getBytes(StandardCharsets.UTF_8));
+        entries.put("org/text.txt", "unrelated".getBytes(StandardCharsets.UTF_8));
+
+        final RenamingTransformer t = new RenamingTransformer();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Common.transformJarStream(new ByteArrayInputStream(newArchive(entries)), baos, t);
+        final Map<String, byte[]> transformed = readArchive(baos.toByteArray());
+
+        assertEquals(Arrays.asList("jakarta/data.bin", "org/data.bin", "jakarta/text.txt", "org/text.txt"), Arrays.asList(transformed.keySet().toArray()));
+        assertTrue(Arrays.equals(largeContent, transformed.get("jakarta/data.bin")));
+        assertTrue(Arrays.equals(largeContent, transformed.get("org/data.bin")));
+        assertEquals("uses jakarta/ package", new String(transformed.get("jakarta/text.txt"), StandardCharsets.UTF_8));
+        assertEquals("unrelated", new String(transformed.get("org/text.txt"), StandardCharsets.UTF_8));
+        assertEquals(0, t.inspectedBinaryBytes);
+    }
+
+    private static byte[] newArchive(final Map<String, byte[]> entries) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static Map<String, byte[]> readArchive(final byte[] archive) throws IOException {
+        final Map<String, byte[]> retVal = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            final byte[] buffer = new byte[8192];
+            ZipEntry entry;
+            int count;
+            while ((entry = zis.getNextEntry()) != null) {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                while ((count = zis.read(buffer)) != -1) {
+                    baos.write(buffer, 0, count);
+                }
+                retVal.put(entry.getName(), baos.toByteArray());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Renames resources in <code>javax/</code> package and rewrites <code>javax/</code> in text resources content.
+     */
+    private static final class RenamingTransformer implements Transformer {
+
+        private long inspectedBinaryBytes;
+
+        @Override
+        public Resource transform(final Resource r) {
+            if (!transformsContent(r.getName())) inspectedBinaryBytes += r.getSize();
+            final String newName = r.getName().replace("javax/", "jakarta/");
+            if (!transformsContent(r.getName())) return newName.equals(r.getName()) ? null : new Resource(newName, r.getData());
+            final String content = new String(r.getData(), StandardCharsets.UTF_8);
+            final String newContent = content.replace("javax/", "jakarta/");
+            if (newName.equals(r.getName()) && newContent.equals(content)) return null;
+            return new Resource(newName, newContent.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean transformsContent(final String name) {
+            return name.endsWith(".txt");
+        }
+
+    }
+
+}